@@ -0,0 +1,81 @@
+package grep.bench;
+
+import grep.engine.CompiledPattern;
+import grep.engine.RegexEngine;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Matches one kind of pattern against a fixed set of log-like lines, half of which match. The
+ * matchPatternAnywhere benchmark includes parsing the pattern, as the public one-shot API does;
+ * compiledMatches and compiledMatch reuse one compiled pattern, as the search does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegexEngineBenchmark {
+
+    @Param({"literal", "class", "alternation", "groupRepeat", "backreference"})
+    public String kind;
+
+    private String pattern;
+    private String[] lines;
+    private CompiledPattern compiled;
+
+    @Setup
+    public void setup() {
+        switch (kind) {
+            case "literal" -> pattern = "timeout";
+            case "class" -> pattern = "[A-Z][a-z]+ \\d\\d\\d [^ ]+ /[a-z]+/[a-z]+/\\d+ [^ ]+ \\w+";
+            case "alternation" -> pattern = "(GET|POST|PUT|DELETE) /api/(users|orders|items)/\\d+";
+            case "groupRepeat" -> pattern = "(\\w+ )+timeout";
+            case "backreference" -> pattern = "(\\w+) \\d+ \\1";
+            default -> throw new IllegalArgumentException(kind);
+        }
+        compiled = RegexEngine.compile(pattern);
+        lines = new String[64];
+        for (int i = 0; i < lines.length; i++) {
+            String verb = new String[] {"GET", "POST", "PUT", "DELETE"}[i % 4];
+            String user = "user" + (i * 7919 % 97);
+            lines[i] = i % 2 == 0
+                    ? "Request " + (200 + i) + " " + verb + " /api/users/" + i + " by " + user
+                            + " " + i + " " + user + " ended with timeout after " + i + "ms"
+                    : "Request " + (200 + i) + " " + verb + " /static/app.js served to "
+                            + user + " in " + i + "ms";
+        }
+    }
+
+    @Benchmark
+    public void matchPatternAnywhere(Blackhole bh) {
+        Map<Integer, String> groups = new HashMap<>();
+        for (String line : lines) {
+            bh.consume(RegexEngine.matchPatternAnywhere(line, pattern, groups));
+        }
+    }
+
+    @Benchmark
+    public void compiledMatches(Blackhole bh) {
+        for (String line : lines) bh.consume(compiled.matches(line));
+    }
+
+    @Benchmark
+    public void compiledMatch(Blackhole bh) {
+        for (String line : lines) bh.consume(compiled.match(line));
+    }
+}
@@ -0,0 +1,99 @@
+package grep.bench;
+
+import grep.cli.CommandOptions;
+import grep.corpus.CorpusGenerator;
+import grep.search.SearchExecutor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end searches through {@link SearchExecutor}, from opening the files to writing matching
+ * lines into a discarding stdout: one generated access log, and a recursive search of a
+ * {@link CorpusGenerator#dataset mixed tree} of the same size. One operation is one whole search;
+ * the score multiplied by the size gives bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class SearchExecutorBenchmark {
+
+    @Param({"32"})
+    public int megabytes;
+
+    @Param({"ERROR", "\\d+\\.\\d+\\.\\d+\\.\\d+ - (GET|POST) /api", "user\\d+ \\w+ timeout"})
+    public String pattern;
+
+    @Param({"1"})
+    public int jobs;
+
+    private Path dir;
+    private Path file;
+    private Path tree;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("grep-bench");
+        long bytes = (long) megabytes << 20;
+        CorpusGenerator corpus = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED);
+        file = corpus.accessLog(dir.resolve("access.log"), bytes);
+        tree = corpus.dataset(dir.resolve("tree"), bytes);
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        CorpusGenerator.delete(dir);
+    }
+
+    @Benchmark
+    public boolean scanFile() {
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = pattern;
+        opts.jobs = jobs;
+        opts.paths.add(file.toString());
+        return SearchExecutor.execute(opts);
+    }
+
+    @Benchmark
+    public boolean countFile() {
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = pattern;
+        opts.jobs = jobs;
+        opts.count = true;
+        opts.paths.add(file.toString());
+        return SearchExecutor.execute(opts);
+    }
+
+    @Benchmark
+    public boolean scanTree() {
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = pattern;
+        opts.jobs = jobs;
+        opts.recursive = true;
+        opts.paths.add(tree.toString());
+        return SearchExecutor.execute(opts);
+    }
+}
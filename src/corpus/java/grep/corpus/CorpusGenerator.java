@@ -0,0 +1,261 @@
+package grep.corpus;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Writes seeded, realistic inputs for benchmarks and large-input tests: access logs, trees of
+ * Java-like sources in deep packages, files of very long lines, mostly-ASCII text with some UTF-8,
+ * text that turns invalid partway, and binary files. The same calls on a generator built with the
+ * same seed write the same bytes, so a dataset never has to be checked in.
+ *
+ * <p>Sizes are targets: a file ends with the first complete line that reaches its size. Matching
+ * content is spread through every kind of file: log levels such as ERROR, "userN request timeout"
+ * messages, IPv4 addresses and words like needle, in text and inside binary data.
+ */
+public final class CorpusGenerator {
+    public static final long DEFAULT_SEED = 42;
+
+    private static final String[] VERBS = {"GET", "GET", "GET", "POST", "PUT", "DELETE"};
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "INFO", "WARN", "ERROR"};
+    private static final String[] MESSAGES = {
+        "ok", "ok", "ok", "cache miss", "request timeout", "payload rejected", "retry scheduled"
+    };
+    private static final String[] RESOURCES = {"items", "orders", "users", "search", "health"};
+    private static final String[] NAMES = {"José", "Zoë", "Müller", "Łukasz", "Ærøskøbing", "東京"};
+    private static final String[] WORDS = {
+        "alpha", "bravo", "cache", "delta", "error", "field", "grep", "hash", "index", "json",
+        "kernel", "line", "match", "node", "offset", "parse", "query", "regex", "stream", "token",
+        "value", "window", "needle", "ERROR", "timeout", "buffer", "count", "state", "table"
+    };
+    private static final String[] PACKAGES = {
+        "core", "io", "util", "net", "model", "service", "impl", "internal", "api", "spi"
+    };
+    private static final String[] TYPES = {"int", "long", "String", "boolean", "List<String>"};
+
+    private final Random random;
+
+    public CorpusGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Writes a mixed tree of about bytes under root: logs/, a source tree under src/, data/ with
+     * long lines and broken UTF-8, and bin/ with binary files. Returns root.
+     */
+    public Path dataset(Path root, long bytes) throws IOException {
+        long logs = bytes * 40 / 100;
+        for (int i = 0; logs > 0; i++) {
+            long size = Math.min(logs, 4L << 20);
+            accessLog(root.resolve("logs").resolve("access-" + i + ".log"), size);
+            logs -= size;
+        }
+        sourceTree(root.resolve("src"), bytes * 30 / 100, 6);
+        longLines(root.resolve("data").resolve("long-lines.txt"), bytes * 15 / 100, 256 << 10);
+        invalidUtf8(root.resolve("data").resolve("latin1.log"), bytes * 5 / 100);
+        long binary = bytes * 10 / 100;
+        for (int i = 0; binary > 0; i++) {
+            long size = Math.min(binary, 1L << 20);
+            binaryFile(root.resolve("bin").resolve("blob-" + i + ".bin"), size);
+            binary -= size;
+        }
+        return root;
+    }
+
+    /**
+     * Writes access-log lines such as "10.1.2.3 - GET /api/items/7 200 WARN user12 request
+     * timeout". About one line in 40 carries a UTF-8 name.
+     */
+    public Path accessLog(Path file, long bytes) throws IOException {
+        try (OutputStream out = open(file)) {
+            StringBuilder line = new StringBuilder(160);
+            for (long written = 0; written < bytes; ) {
+                line.setLength(0);
+                logLine(line, random.nextInt(40) == 0 ? pick(NAMES) : null);
+                written += write(out, line);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes Java-like sources of 2 to 24 KiB each, about bytes in total, in packages up to depth
+     * levels below root/main/java/com/acme. One file in eight uses \r\n line ends. Returns root.
+     */
+    public Path sourceTree(Path root, long bytes, int depth) throws IOException {
+        Path base = root.resolve("main").resolve("java").resolve("com").resolve("acme");
+        for (int i = 0; bytes > 0; i++) {
+            StringBuilder pkg = new StringBuilder("com.acme");
+            Path dir = base;
+            int levels = 1 + random.nextInt(depth);
+            for (int level = 0; level < levels; level++) {
+                // few choices per level so packages are shared between files
+                String part = PACKAGES[random.nextInt(3 + level) % PACKAGES.length];
+                pkg.append('.').append(part);
+                dir = dir.resolve(part);
+            }
+            long size = Math.min(bytes, 2048 + random.nextInt(22 << 10));
+            bytes -= javaSource(dir.resolve("Type" + i + ".java"), pkg.toString(), "Type" + i,
+                    size, random.nextInt(8) == 0 ? "\r\n" : "\n");
+        }
+        return root;
+    }
+
+    /** Writes lines of words about lineLength bytes long, up to about bytes. */
+    public Path longLines(Path file, long bytes, int lineLength) throws IOException {
+        try (OutputStream out = open(file)) {
+            StringBuilder line = new StringBuilder(lineLength + 32);
+            for (long written = 0; written < bytes; ) {
+                line.setLength(0);
+                while (line.length() < lineLength) {
+                    line.append(pick(WORDS)).append(' ');
+                }
+                line.append('\n');
+                written += write(out, line);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes access-log lines whose names are ISO-8859-1, so the file is valid UTF-8 up to the
+     * first such line and binary from there on.
+     */
+    public Path invalidUtf8(Path file, long bytes) throws IOException {
+        try (OutputStream out = open(file)) {
+            StringBuilder line = new StringBuilder(160);
+            for (long written = 0; written < bytes; ) {
+                line.setLength(0);
+                boolean latin1 = written > bytes / 2 && random.nextInt(20) == 0;
+                logLine(line, latin1 ? "Müller" : null);
+                byte[] b = line.toString().getBytes(
+                        latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+                out.write(b);
+                written += b.length;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes random bytes, NULs included, with an access-log line embedded every few KiB so that
+     * text patterns match inside the binary data.
+     */
+    public Path binaryFile(Path file, long bytes) throws IOException {
+        try (OutputStream out = open(file)) {
+            byte[] noise = new byte[4096];
+            StringBuilder line = new StringBuilder(160);
+            for (long written = 0; written < bytes; ) {
+                random.nextBytes(noise);
+                noise[random.nextInt(noise.length)] = 0;
+                int n = (int) Math.min(noise.length, bytes - written);
+                out.write(noise, 0, n);
+                written += n;
+                line.setLength(0);
+                line.append('\n');
+                logLine(line, null);
+                written += write(out, line);
+            }
+        }
+        return file;
+    }
+
+    /** Deletes root and everything below it. */
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    private void logLine(StringBuilder line, String name) {
+        line.append("10.").append(random.nextInt(256)).append('.').append(random.nextInt(256))
+                .append('.').append(random.nextInt(256)).append(" - ").append(pick(VERBS))
+                .append(" /api/").append(pick(RESOURCES)).append('/')
+                .append(random.nextInt(100_000)).append(' ')
+                .append(random.nextInt(10) == 0 ? 500 : 200).append(' ').append(pick(LEVELS))
+                .append(" user").append(random.nextInt(1000)).append(' ').append(pick(MESSAGES));
+        if (name != null) line.append(" name=\"").append(name).append('"');
+        line.append('\n');
+    }
+
+    private long javaSource(Path file, String pkg, String type, long size, String nl)
+            throws IOException {
+        long written = 0;
+        try (OutputStream out = open(file)) {
+            StringBuilder text = new StringBuilder(1024);
+            text.append("package ").append(pkg).append(';').append(nl).append(nl)
+                    .append("import java.util.List;").append(nl)
+                    .append("import java.util.Map;").append(nl).append(nl)
+                    .append("/**").append(nl)
+                    .append(" * Handles the ").append(pick(WORDS)).append(' ').append(pick(WORDS))
+                    .append(" of ").append(pkg).append('.').append(nl)
+                    .append(" */").append(nl)
+                    .append("public class ").append(type).append(" {").append(nl);
+            written += write(out, text);
+            for (int m = 0; written < size; m++) {
+                text.setLength(0);
+                String returns = pick(TYPES);
+                String name = pick(WORDS).toLowerCase() + m;
+                String param = pick(WORDS).toLowerCase();
+                if (random.nextInt(4) == 0) {
+                    text.append("    // TODO ").append(pick(WORDS)).append(' ').append(pick(WORDS))
+                            .append(nl);
+                }
+                text.append("    public ").append(returns).append(' ').append(name)
+                        .append("(Map<String, Integer> ").append(param)
+                        .append(") {").append(nl)
+                        .append("        if (").append(param).append(".isEmpty()) {").append(nl)
+                        .append("            throw new IllegalStateException(\"")
+                        .append(pick(WORDS)).append(' ').append(pick(WORDS)).append("\");")
+                        .append(nl)
+                        .append("        }").append(nl);
+                if (random.nextInt(16) == 0) {
+                    text.append("        String label = \"").append(pick(NAMES)).append("\";")
+                            .append(nl);
+                }
+                text.append("        return ").append(defaultValue(returns)).append(';').append(nl)
+                        .append("    }").append(nl).append(nl);
+                written += write(out, text);
+            }
+            text.setLength(0);
+            text.append('}').append(nl);
+            written += write(out, text);
+        }
+        return written;
+    }
+
+    private static String defaultValue(String type) {
+        return switch (type) {
+            case "int" -> "0";
+            case "long" -> "0L";
+            case "boolean" -> "false";
+            case "String" -> "\"\"";
+            default -> "List.of()";
+        };
+    }
+
+    private String pick(String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    private static OutputStream open(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        return new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+    }
+
+    private static int write(OutputStream out, CharSequence text) throws IOException {
+        byte[] b = text.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(b);
+        return b.length;
+    }
+}
@@ -12,9 +12,9 @@ public static void main(String[] args) {
       FlagParser parser = new FlagParser();
       CommandOptions opts = parser.parseArgs(args);
 
-      // Run the search
-      SearchExecutor executor = new SearchExecutor();
-      executor.execute(opts.pattern, opts.recursive, opts.paths);
+      // Run the search; the exit status tells whether anything matched (used with -q)
+      boolean matched = SearchExecutor.execute(opts);
+      System.exit(matched ? 0 : 1);
 
     } catch (IllegalArgumentException e) {
       System.err.println("Error: " + e.getMessage());
@@ -49,15 +49,16 @@ public static CommandOptions parse(String[] args) throws UsageException {
       if (!handled) {
         // Unknown flag starting with '-' -> usage
         if (args[i].startsWith("-")) {
-          throw new UsageException("Usage: ./your_program.sh [-r] -E <pattern> [file1 file2 ...]");
+          throw new UsageException(UsageException.USAGE);
         }
         opts.paths.add(args[i]);
         i++;
       }
     }
 
-    if (opts.pattern == null) {
-      throw new UsageException("Usage: ./your_program.sh [-r] -E <pattern> [file1 file2 ...]");
+    // --index needs no pattern
+    if (opts.pattern == null && !opts.index) {
+      throw new UsageException(UsageException.USAGE);
     }
 
     return opts;
@@ -6,7 +6,18 @@
 /** Immutable-ish options container for parsed CLI flags and args. */
 public final class CommandOptions {
   public boolean recursive; // -r
+  public boolean filesWithMatches; // -l
+  public boolean count; // -c
+  public boolean quiet; // -q
   public String pattern; // -E <pattern>
+  public int jobs = Runtime.getRuntime().availableProcessors(); // -j N
+  public long maxCount = Long.MAX_VALUE; // -m N
+  public long stepBudget; // --step-budget N: backtracking steps per line, 0 for the default
+  public boolean stats; // --stats: report counters and phase times on stderr
+  public boolean index; // --index: build the index instead of searching
   public final List<String> paths = new ArrayList<>(); // positional paths
+  public final List<String> includes = new ArrayList<>(); // --include GLOB
+  public final List<String> excludes = new ArrayList<>(); // --exclude GLOB
+  public final List<String> excludeDirs = new ArrayList<>(); // --exclude-dir GLOB
 
 }
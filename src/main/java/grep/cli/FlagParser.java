@@ -1,7 +1,16 @@
 package grep.cli;
 
+import grep.cli.builtin.CountFlagHandler;
 import grep.cli.builtin.ERegexFlagHandler;
+import grep.cli.builtin.FileFilterFlagHandler;
+import grep.cli.builtin.FilesWithMatchesFlagHandler;
+import grep.cli.builtin.IndexFlagHandler;
+import grep.cli.builtin.JobsFlagHandler;
+import grep.cli.builtin.MaxCountFlagHandler;
+import grep.cli.builtin.QuietFlagHandler;
 import grep.cli.builtin.RecursiveFlagHandler;
+import grep.cli.builtin.StatsFlagHandler;
+import grep.cli.builtin.StepBudgetFlagHandler;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,6 +21,15 @@ public final class FlagParser {
   public FlagParser() {
     // Register all available handlers
     handlers.add(new RecursiveFlagHandler());
+    handlers.add(new JobsFlagHandler());
+    handlers.add(new FileFilterFlagHandler());
+    handlers.add(new FilesWithMatchesFlagHandler());
+    handlers.add(new CountFlagHandler());
+    handlers.add(new QuietFlagHandler());
+    handlers.add(new MaxCountFlagHandler());
+    handlers.add(new IndexFlagHandler());
+    handlers.add(new StepBudgetFlagHandler());
+    handlers.add(new StatsFlagHandler());
     handlers.add(new ERegexFlagHandler());
   }
 
@@ -35,8 +53,9 @@ public CommandOptions parseArgs(String[] args) throws UsageException {
       }
     }
 
-    if (opts.pattern == null) {
-      throw new UsageException("Usage: ./your_program.sh [-r] -E <pattern> [file1 file2 ...]");
+    // --index needs no pattern
+    if (opts.pattern == null && !opts.index) {
+      throw new UsageException(UsageException.USAGE);
     }
 
     return opts;
@@ -1,7 +1,16 @@
 package grep.cli;
 
+import grep.cli.builtin.CountFlagHandler;
 import grep.cli.builtin.ERegexFlagHandler;
+import grep.cli.builtin.FileFilterFlagHandler;
+import grep.cli.builtin.FilesWithMatchesFlagHandler;
+import grep.cli.builtin.IndexFlagHandler;
+import grep.cli.builtin.JobsFlagHandler;
+import grep.cli.builtin.MaxCountFlagHandler;
+import grep.cli.builtin.QuietFlagHandler;
 import grep.cli.builtin.RecursiveFlagHandler;
+import grep.cli.builtin.StatsFlagHandler;
+import grep.cli.builtin.StepBudgetFlagHandler;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,6 +23,15 @@ public static List<FlagHandler> loadAll() {
     // keep order: -E handler first typically, then -r (order isn't critical for tests)
     handlers.add(new ERegexFlagHandler());
     handlers.add(new RecursiveFlagHandler());
+    handlers.add(new JobsFlagHandler());
+    handlers.add(new FileFilterFlagHandler());
+    handlers.add(new FilesWithMatchesFlagHandler());
+    handlers.add(new CountFlagHandler());
+    handlers.add(new QuietFlagHandler());
+    handlers.add(new MaxCountFlagHandler());
+    handlers.add(new IndexFlagHandler());
+    handlers.add(new StepBudgetFlagHandler());
+    handlers.add(new StatsFlagHandler());
     return handlers;
   }
 }
@@ -1,6 +1,11 @@
 package grep.cli;
 
 public final class UsageException extends Exception {
+  public static final String USAGE =
+      "Usage: ./your_program.sh [-r] [-l|-c|-q] [-m N] [-j N] [--step-budget N] [--stats]"
+          + " [--include|--exclude|--exclude-dir GLOB] -E <pattern> [file1 file2 ...]"
+          + "\n       ./your_program.sh --index [--include|--exclude|--exclude-dir GLOB] [dir ...]";
+
   public UsageException(String message) {
     super(message);
   }
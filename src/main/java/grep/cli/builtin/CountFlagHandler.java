@@ -0,0 +1,24 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+
+/** Handles -c (print the number of matching lines per file) */
+public final class CountFlagHandler implements FlagHandler {
+  @Override
+  public boolean supports(String arg) {
+    return "-c".equals(arg);
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && "-c".equals(args[i]);
+  }
+
+  @Override
+  public int handle(String[] args, int i, CommandOptions opts) throws UsageException {
+    opts.count = true;
+    return i + 1;
+  }
+}
@@ -20,7 +20,7 @@ public boolean supports(String[] args, int i) {
   @Override
   public int handle(String[] args, int index, CommandOptions opts) throws UsageException {
     if (index + 1 >= args.length) {
-      throw new UsageException("Usage: ./your_program.sh [-r] -E <pattern> [file1 file2 ...]");
+      throw new UsageException(UsageException.USAGE);
     }
     opts.pattern = args[index + 1];
     // return the next index to continue at
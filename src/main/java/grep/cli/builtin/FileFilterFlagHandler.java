@@ -0,0 +1,55 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+import java.nio.file.FileSystems;
+import java.util.regex.PatternSyntaxException;
+
+/** Handles --include, --exclude and --exclude-dir, as --flag GLOB or --flag=GLOB */
+public final class FileFilterFlagHandler implements FlagHandler {
+
+  @Override
+  public boolean supports(String arg) {
+    return flagName(arg) != null;
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && supports(args[i]);
+  }
+
+  @Override
+  public int handle(String[] args, int index, CommandOptions opts) throws UsageException {
+    String flag = flagName(args[index]);
+    String glob;
+    int next;
+    if (args[index].length() > flag.length()) {
+      glob = args[index].substring(flag.length() + 1);
+      next = index + 1;
+    } else {
+      if (index + 1 >= args.length) throw new UsageException(UsageException.USAGE);
+      glob = args[index + 1];
+      next = index + 2;
+    }
+    try {
+      // reject a malformed glob here instead of in the middle of the search
+      FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    } catch (PatternSyntaxException e) {
+      throw new UsageException(UsageException.USAGE);
+    }
+    switch (flag) {
+      case "--include" -> opts.includes.add(glob);
+      case "--exclude" -> opts.excludes.add(glob);
+      default -> opts.excludeDirs.add(glob);
+    }
+    return next;
+  }
+
+  private static String flagName(String arg) {
+    for (String flag : new String[] {"--include", "--exclude-dir", "--exclude"}) {
+      if (arg.equals(flag) || arg.startsWith(flag + "=")) return flag;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,24 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+
+/** Handles -l (print only the names of matching files) */
+public final class FilesWithMatchesFlagHandler implements FlagHandler {
+  @Override
+  public boolean supports(String arg) {
+    return "-l".equals(arg);
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && "-l".equals(args[i]);
+  }
+
+  @Override
+  public int handle(String[] args, int i, CommandOptions opts) throws UsageException {
+    opts.filesWithMatches = true;
+    return i + 1;
+  }
+}
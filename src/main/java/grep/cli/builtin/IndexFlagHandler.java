@@ -0,0 +1,24 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+
+/** Handles --index (build or refresh the trigram index of the given directories) */
+public final class IndexFlagHandler implements FlagHandler {
+  @Override
+  public boolean supports(String arg) {
+    return "--index".equals(arg);
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && "--index".equals(args[i]);
+  }
+
+  @Override
+  public int handle(String[] args, int i, CommandOptions opts) throws UsageException {
+    opts.index = true;
+    return i + 1;
+  }
+}
@@ -0,0 +1,40 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+
+/** Handles -j N and -jN (number of files searched in parallel) */
+public final class JobsFlagHandler implements FlagHandler {
+
+  @Override
+  public boolean supports(String arg) {
+    return arg.startsWith("-j");
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && args[i].startsWith("-j");
+  }
+
+  @Override
+  public int handle(String[] args, int index, CommandOptions opts) throws UsageException {
+    String value;
+    int next;
+    if (args[index].length() > 2) {
+      value = args[index].substring(2);
+      next = index + 1;
+    } else {
+      if (index + 1 >= args.length) throw new UsageException(UsageException.USAGE);
+      value = args[index + 1];
+      next = index + 2;
+    }
+    try {
+      opts.jobs = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new UsageException(UsageException.USAGE);
+    }
+    if (opts.jobs < 1) throw new UsageException(UsageException.USAGE);
+    return next;
+  }
+}
@@ -0,0 +1,24 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+
+/** Handles -q (print nothing, stop at the first match) */
+public final class QuietFlagHandler implements FlagHandler {
+  @Override
+  public boolean supports(String arg) {
+    return "-q".equals(arg);
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && "-q".equals(args[i]);
+  }
+
+  @Override
+  public int handle(String[] args, int i, CommandOptions opts) throws UsageException {
+    opts.quiet = true;
+    return i + 1;
+  }
+}
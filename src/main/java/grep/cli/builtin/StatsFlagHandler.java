@@ -0,0 +1,24 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+
+/** Handles --stats (report counters and phase times of the search on stderr) */
+public final class StatsFlagHandler implements FlagHandler {
+  @Override
+  public boolean supports(String arg) {
+    return "--stats".equals(arg);
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && "--stats".equals(args[i]);
+  }
+
+  @Override
+  public int handle(String[] args, int i, CommandOptions opts) throws UsageException {
+    opts.stats = true;
+    return i + 1;
+  }
+}
@@ -0,0 +1,41 @@
+package grep.cli.builtin;
+
+import grep.cli.CommandOptions;
+import grep.cli.FlagHandler;
+import grep.cli.UsageException;
+
+/** Handles --step-budget N and --step-budget=N (backtracking steps allowed per line, N > 0) */
+public final class StepBudgetFlagHandler implements FlagHandler {
+  private static final String FLAG = "--step-budget";
+
+  @Override
+  public boolean supports(String arg) {
+    return arg.equals(FLAG) || arg.startsWith(FLAG + "=");
+  }
+
+  @Override
+  public boolean supports(String[] args, int i) {
+    return i < args.length && supports(args[i]);
+  }
+
+  @Override
+  public int handle(String[] args, int index, CommandOptions opts) throws UsageException {
+    String value;
+    int next;
+    if (args[index].length() > FLAG.length()) {
+      value = args[index].substring(FLAG.length() + 1);
+      next = index + 1;
+    } else {
+      if (index + 1 >= args.length) throw new UsageException(UsageException.USAGE);
+      value = args[index + 1];
+      next = index + 2;
+    }
+    try {
+      opts.stepBudget = Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new UsageException(UsageException.USAGE);
+    }
+    if (opts.stepBudget <= 0) throw new UsageException(UsageException.USAGE);
+    return next;
+  }
+}
@@ -0,0 +1,121 @@
+package grep.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Compiled character set shared by bracket expressions and the \d and \w shorthands. ASCII
+ * membership is a 128-bit bitmap; everything above is a sorted table of disjoint inclusive ranges
+ * searched by bisection. Classes are built once when the pattern is parsed (\d and \w once per
+ * JVM), so matching a character never re-reads the class text.
+ */
+final class CharClass {
+  static final CharClass DIGIT = fromPredicate(Character::isDigit);
+  static final CharClass WORD = fromPredicate(c -> Character.isLetterOrDigit(c) || c == '_');
+
+  /** Characters 0-63 and 64-127; already complemented for a negated class. */
+  private final long low;
+
+  private final long high;
+
+  /** Start/end pairs over characters >= 128, sorted and non-overlapping. */
+  private final char[] ranges;
+
+  /** Applies to the range table only, since the bitmap is stored complemented. */
+  private final boolean negate;
+
+  private CharClass(long low, long high, char[] ranges, boolean negate) {
+    this.low = negate ? ~low : low;
+    this.high = negate ? ~high : high;
+    this.ranges = ranges;
+    this.negate = negate;
+  }
+
+  boolean contains(char c) {
+    if (c < 64) return (low & (1L << c)) != 0;
+    if (c < 128) return (high & (1L << (c - 64))) != 0;
+    return inRanges(c) != negate;
+  }
+
+  private boolean inRanges(char c) {
+    int lo = 0;
+    int hi = ranges.length / 2 - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (c < ranges[2 * mid]) {
+        hi = mid - 1;
+      } else if (c > ranges[2 * mid + 1]) {
+        lo = mid + 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compiles the text between the brackets (without a leading ^). A '-' between two characters
+   * forms a range; anywhere else it is a literal, and a reversed range matches nothing.
+   */
+  static CharClass parse(String members, boolean negate) {
+    List<char[]> spans = new ArrayList<>();
+    for (int idx = 0; idx < members.length(); idx++) {
+      if (idx + 2 < members.length() && members.charAt(idx + 1) == '-') {
+        char start = members.charAt(idx);
+        char end = members.charAt(idx + 2);
+        if (start <= end) spans.add(new char[] {start, end});
+        idx += 2;
+      } else {
+        char ch = members.charAt(idx);
+        spans.add(new char[] {ch, ch});
+      }
+    }
+    return build(spans, negate);
+  }
+
+  private static CharClass fromPredicate(IntPredicate member) {
+    List<char[]> spans = new ArrayList<>();
+    int start = -1;
+    for (int c = 0; c <= Character.MAX_VALUE + 1; c++) {
+      boolean in = c <= Character.MAX_VALUE && member.test(c);
+      if (in && start < 0) {
+        start = c;
+      } else if (!in && start >= 0) {
+        spans.add(new char[] {(char) start, (char) (c - 1)});
+        start = -1;
+      }
+    }
+    return build(spans, false);
+  }
+
+  private static CharClass build(List<char[]> spans, boolean negate) {
+    long low = 0;
+    long high = 0;
+    List<char[]> upper = new ArrayList<>();
+    for (char[] span : spans) {
+      for (int c = span[0]; c <= Math.min(span[1], 127); c++) {
+        if (c < 64) {
+          low |= 1L << c;
+        } else {
+          high |= 1L << (c - 64);
+        }
+      }
+      if (span[1] >= 128) upper.add(new char[] {(char) Math.max(span[0], 128), span[1]});
+    }
+
+    upper.sort((a, b) -> a[0] - b[0]);
+    char[] ranges = new char[2 * upper.size()];
+    int n = 0;
+    for (char[] span : upper) {
+      if (n > 0 && span[0] <= ranges[n - 1] + 1) {
+        ranges[n - 1] = (char) Math.max(ranges[n - 1], span[1]);
+      } else {
+        ranges[n++] = span[0];
+        ranges[n++] = span[1];
+      }
+    }
+    return new CharClass(low, high, Arrays.copyOf(ranges, n), negate);
+  }
+}
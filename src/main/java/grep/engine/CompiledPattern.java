@@ -0,0 +1,235 @@
+package grep.engine;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pattern parsed once by {@link RegexEngine#compile(String)}. Instances are immutable apart from
+ * their statistics and meant to be reused for every line of a search. All per-match state lives
+ * in per-thread engine objects, so one instance can be shared by any number of threads.
+ *
+ * <p>Backreference-free patterns answer {@link #matches} with a per-thread {@link LazyDFA} and
+ * extract captures with the linear-time {@link PikeVM}; patterns containing \1 style
+ * backreferences need the recursive backtracker in {@link MatcherState}. Either way a {@link
+ * LiteralPrefilter} first rejects lines that lack a literal every match must contain, and the
+ * {@link StartSet} lets searches skip offsets where no match can begin.
+ *
+ * <p>The backtracker may take at most a step budget per line. When a line runs out of it, the line
+ * is decided again by the DFA of the pattern with every backreference replaced by a copy of its
+ * group; that pattern matches every line the original matches, so when it rejects the line the
+ * answer is final. Otherwise {@link StepBudgetExceededException} is thrown. Every time the budget
+ * runs out is counted in {@link #stepBudgetTrips}.
+ *
+ * <p>The per-thread engines count their own runs and steps in plain fields. Once {@link
+ * #countEngines} was called, every engine created from then on is also kept, and {@link
+ * #matcherRuns} and {@link #backtrackSteps} add them up over every thread that used the pattern;
+ * they are exact once those threads are done. Otherwise the engines live only as long as their
+ * threads, and both report 0.
+ */
+public final class CompiledPattern {
+  /** Backtracking steps allowed per line unless the pattern was compiled with another budget. */
+  public static final long DEFAULT_STEP_BUDGET = 10_000_000;
+
+  private final String pattern;
+  private final Program program; // null when the pattern has backreferences
+  private final LiteralPrefilter prefilter; // null when no required literal was found
+  private final StartSet startSet;
+  private final boolean anchoredStart;
+  private final int groupCount;
+  // backreference-free superset of a backtracking pattern; null when there is none
+  private final CompiledPattern linear;
+  private final LongAdder budgetTrips = new LongAdder();
+  // each thread keeps its own DFA state cache, VM thread lists or backtracking memo
+  private final ThreadLocal<LazyDFA> dfa;
+  private final ThreadLocal<PikeVM> vm;
+  private final ThreadLocal<MatcherState> backtracker;
+  // every per-thread engine created since countEngines, for the statistics
+  private volatile boolean counting;
+  private final Queue<LazyDFA> dfas = new ConcurrentLinkedQueue<>();
+  private final Queue<PikeVM> vms = new ConcurrentLinkedQueue<>();
+  private final Queue<MatcherState> backtrackers = new ConcurrentLinkedQueue<>();
+
+  CompiledPattern(
+      String pattern,
+      Node[][] alternatives,
+      Program program,
+      LiteralPrefilter prefilter,
+      StartSet startSet,
+      boolean[] memoizable,
+      boolean anchoredStart,
+      boolean anchoredEnd,
+      int groupCount,
+      long stepBudget,
+      CompiledPattern linear) {
+    this.pattern = pattern;
+    this.program = program;
+    this.prefilter = prefilter;
+    this.startSet = startSet;
+    this.anchoredStart = anchoredStart;
+    this.groupCount = groupCount;
+    this.linear = linear;
+    if (program != null) {
+      this.dfa =
+          ThreadLocal.withInitial(
+              () ->
+                  register(
+                      dfas,
+                      new LazyDFA(
+                          program, anchoredStart, anchoredEnd, LazyDFA.DEFAULT_CACHE_BYTES)));
+      this.vm =
+          ThreadLocal.withInitial(
+              () -> register(vms, new PikeVM(program, startSet, anchoredStart, anchoredEnd)));
+      this.backtracker = null;
+    } else {
+      this.dfa = null;
+      this.vm = null;
+      this.backtracker =
+          ThreadLocal.withInitial(
+              () ->
+                  register(
+                      backtrackers,
+                      new MatcherState(
+                          alternatives, groupCount, memoizable, anchoredEnd, stepBudget)));
+    }
+  }
+
+  /**
+   * Returns true if the pattern matches anywhere in input.
+   *
+   * @throws StepBudgetExceededException if backtracking ran out of steps and the line is undecided
+   */
+  public boolean matches(CharSequence input) {
+    if (input.length() < startSet.minLength) return false;
+    if (prefilter != null) {
+      if (!prefilter.mayMatch(input)) return false;
+      if (prefilter.isExact()) return true;
+    }
+    if (program != null) {
+      int result = dfa.get().search(input);
+      if (result != LazyDFA.GAVE_UP) return result == LazyDFA.MATCH;
+      return vm.get().search(input, null);
+    }
+    try {
+      return backtrack(input);
+    } catch (StepBudgetExceededException e) {
+      if (rejectedLinearly(input)) return false;
+      throw e;
+    }
+  }
+
+  /**
+   * Finds the leftmost match in input and reports its group spans, or returns null if there is
+   * none. No text is copied until {@link MatchResult#group(int)} is called.
+   *
+   * @throws StepBudgetExceededException if backtracking ran out of steps and the line is undecided
+   */
+  public MatchResult match(CharSequence input) {
+    if (input.length() < startSet.minLength) return null;
+    if (prefilter != null && !prefilter.mayMatch(input)) return null;
+    int[] slots = new int[2 * (groupCount + 1)];
+    if (program != null) {
+      if (!vm.get().search(input, slots)) return null;
+      return new MatchResult(input, slots);
+    }
+    MatcherState m = backtracker.get();
+    try {
+      if (!backtrack(input)) return null;
+    } catch (StepBudgetExceededException e) {
+      if (rejectedLinearly(input)) return null;
+      throw e;
+    }
+    System.arraycopy(m.slots, 0, slots, 0, slots.length);
+    return new MatchResult(input, slots);
+  }
+
+  /** Number of capturing groups in the pattern. */
+  public int groupCount() {
+    return groupCount;
+  }
+
+  /** True if the pattern uses backreferences and therefore needs the backtracking engine. */
+  public boolean usesBacktracking() {
+    return program == null;
+  }
+
+  public String pattern() {
+    return pattern;
+  }
+
+  /**
+   * Literals of which every matching line contains at least one, as found by the prefilter; empty
+   * when no such set is known. Lets a caller rule out whole files, for example with an index.
+   */
+  public List<String> requiredLiterals() {
+    return prefilter == null ? List.of() : prefilter.literals();
+  }
+
+  /**
+   * Keeps the per-thread engines created from now on, so that {@link #matcherRuns} and {@link
+   * #backtrackSteps} can add up their counters. Call it before matching starts; the engines then
+   * stay reachable as long as this pattern.
+   */
+  public void countEngines() {
+    counting = true;
+    if (linear != null) linear.countEngines();
+  }
+
+  /**
+   * Number of lines, over every thread so far, on which backtracking ran out of its step budget,
+   * whether or not the linear check then decided them.
+   */
+  public long stepBudgetTrips() {
+    return budgetTrips.sum();
+  }
+
+  /**
+   * Number of times, over every thread since {@link #countEngines}, that a matcher ran on a line:
+   * the lazy DFA, the Pike VM, or the backtracker. Lines rejected by the length check or the literal prefilter
+   * never reach one; a line the DFA gives up on is counted again for the VM.
+   */
+  public long matcherRuns() {
+    long runs = linear == null ? 0 : linear.matcherRuns();
+    for (LazyDFA d : dfas) runs += d.runs;
+    for (PikeVM v : vms) runs += v.runs;
+    for (MatcherState m : backtrackers) runs += m.runs;
+    return runs;
+  }
+
+  /**
+   * Backtracking steps taken over every thread since {@link #countEngines}, see {@link
+   * StepBudgetExceededException}.
+   */
+  public long backtrackSteps() {
+    long steps = 0;
+    for (MatcherState m : backtrackers) steps += m.totalSteps();
+    return steps;
+  }
+
+  private <T> T register(Queue<T> engines, T engine) {
+    if (counting) engines.add(engine);
+    return engine;
+  }
+
+  /** Counts a budget trip; true if the backreference-free superset does not match input. */
+  private boolean rejectedLinearly(CharSequence input) {
+    budgetTrips.increment();
+    return linear != null && !linear.matches(input);
+  }
+
+  private boolean backtrack(CharSequence input) {
+    MatcherState m = backtracker.get();
+    m.reset(input);
+    if (anchoredStart) return startSet.next(input, 0) == 0 && m.matchAt(0);
+    for (int i = startSet.next(input, 0); i >= 0; i = startSet.next(input, i + 1)) {
+      if (m.matchAt(i)) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return pattern;
+  }
+}
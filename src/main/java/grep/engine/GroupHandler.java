@@ -1,9 +1,5 @@
 package grep.engine;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * Group-level helpers: alternation handling etc.
  */
@@ -11,27 +7,26 @@ final class GroupHandler {
     private GroupHandler() {}
 
     static boolean handleAlternation(
-            String input, int i, String pattern, int openParen, int closeParen,
-            int patternEnd, boolean anchoredEnd, Map<Integer, String> groups, int groupIndex) {
-
-        int insideStart = openParen + 1;
-        List<int[]> options = PatternUtils.splitTopLevelIndices(pattern, insideStart, closeParen, '|');
+            MatcherState m,
+            int i,
+            int end,
+            Node[] seq,
+            int j,
+            boolean anchoredEnd,
+            MatcherState.Continuation cont) {
 
-        int suffixStart = closeParen + 1;
+        Node.Group group = (Node.Group) seq[j];
 
-        for (int[] opt : options) {
-            int optStart = opt[0];
-            int optEnd = opt[1];
-            Map<Integer, String> newGroups = new HashMap<>(groups);
-            for (int len = 0; len <= input.length() - i; len++) {
-                String candidate = input.substring(i, i + len);
-                if (MatcherState.matchPattern(candidate, 0, pattern, optStart, optEnd, true, newGroups)) {
-                    newGroups.put(groupIndex, candidate);
-                    if (MatcherState.matchPattern(input, i + len, pattern, suffixStart, patternEnd, anchoredEnd, newGroups)) {
-                        groups.clear();
-                        groups.putAll(newGroups);
+        for (Node[] option : group.alternatives) {
+            for (int len = 0; len <= end - i; len++) {
+                int mark = m.mark();
+                if (m.matchPattern(i, i + len, option, 0, true, null)) {
+                    m.setSlot(2 * group.index, i);
+                    m.setSlot(2 * group.index + 1, i + len);
+                    if (m.matchPattern(i + len, end, seq, j + 1, anchoredEnd, cont)) {
                         return true;
                     }
+                    m.undo(mark);
                 }
             }
         }
@@ -0,0 +1,224 @@
+package grep.engine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Match-only search over a {@link Program} using a DFA built on demand. Each DFA state is the set
+ * of NFA instructions alive at one input position; transitions are computed by subset construction
+ * the first time they are needed and then cached, so the steady-state inner loop is a single table
+ * lookup per character.
+ *
+ * <p>The state cache is bounded by a memory budget. When it fills up it is flushed and rebuilt from
+ * the current state; if a single search has to flush too often the DFA gives up and the caller
+ * falls back to the {@link PikeVM}. Instances are not thread-safe; {@link CompiledPattern} keeps one
+ * per thread.
+ */
+final class LazyDFA {
+  static final int NO_MATCH = 0;
+  static final int MATCH = 1;
+  static final int GAVE_UP = 2;
+
+  static final int DEFAULT_CACHE_BYTES = 2 * 1024 * 1024;
+  private static final int MAX_FLUSHES_PER_SEARCH = 8;
+
+  private static final int ASCII = 128;
+  private static final int UNKNOWN = -1;
+  private static final int DEAD = -2;
+
+  private final Program prog;
+  private final boolean anchoredStart;
+  private final boolean anchoredEnd;
+  private final int maxStates;
+
+  // state cache: ASCII transitions in a flat table, NFA pc sets and match flags per state
+  private int[] table;
+  private int[][] states;
+  private boolean[] matching;
+  private int stateCount;
+  private final Map<StateKey, Integer> index = new HashMap<>();
+
+  // scratch space for subset construction
+  private final int[] stack;
+  private final boolean[] seen;
+  private final int[] members;
+  private int memberCount;
+
+  private int[] startSet;
+  private int flushes;
+
+  /** Searches run by this instance, for statistics. */
+  long runs;
+
+  LazyDFA(Program prog, boolean anchoredStart, boolean anchoredEnd, int cacheBytes) {
+    this.prog = prog;
+    this.anchoredStart = anchoredStart;
+    this.anchoredEnd = anchoredEnd;
+    int bytesPerState = ASCII * Integer.BYTES + prog.size() * Integer.BYTES + 64;
+    this.maxStates = Math.max(4, cacheBytes / bytesPerState);
+    this.stack = new int[2 * prog.size() + 1];
+    this.seen = new boolean[prog.size()];
+    this.members = new int[prog.size()];
+    this.table = new int[16 * ASCII];
+    this.states = new int[16][];
+    this.matching = new boolean[16];
+  }
+
+  /** Returns MATCH, NO_MATCH, or GAVE_UP when the cache thrashed and the result is unknown. */
+  int search(CharSequence input) {
+    runs++;
+    flushes = 0;
+    if (stateCount == 0) startState();
+    int s = 0; // the start state is always interned first
+    int len = input.length();
+    if (!anchoredEnd && matching[s]) return MATCH;
+
+    for (int i = 0; i < len; i++) {
+      char c = input.charAt(i);
+      int next = c < ASCII ? table[s * ASCII + c] : UNKNOWN;
+      if (next == UNKNOWN) {
+        next = computeNext(s, c);
+        if (next == UNKNOWN) return GAVE_UP;
+      }
+      if (next == DEAD) return NO_MATCH;
+      s = next;
+      if (!anchoredEnd && matching[s]) return MATCH;
+    }
+    return matching[s] ? MATCH : NO_MATCH;
+  }
+
+  private void startState() {
+    memberCount = 0;
+    addClosure(0);
+    startSet = collectMembers();
+    intern(startSet);
+  }
+
+  /** Builds (or finds) the state reached from s on c; UNKNOWN if the search should give up. */
+  private int computeNext(int s, char c) {
+    memberCount = 0;
+    for (int pc : states[s]) {
+      boolean consumes =
+          switch (prog.op[pc]) {
+            case Program.CHAR -> c == prog.x[pc];
+            case Program.ANY -> true;
+            case Program.CLASS -> TokenMatcher.charMatches(c, prog.token[pc]);
+            default -> false;
+          };
+      if (consumes) addClosure(pc + 1);
+    }
+    if (!anchoredStart) {
+      for (int pc : startSet) mark(pc);
+    }
+    int[] set = collectMembers();
+
+    if (set.length == 0) {
+      if (c < ASCII) table[s * ASCII + c] = DEAD;
+      return DEAD;
+    }
+    Integer known = index.get(new StateKey(set));
+    if (known != null) {
+      if (c < ASCII) table[s * ASCII + c] = known;
+      return known;
+    }
+    if (stateCount >= maxStates) {
+      if (++flushes > MAX_FLUSHES_PER_SEARCH) return UNKNOWN;
+      // s is gone after the flush, so this transition is not recorded
+      flush();
+      return intern(set);
+    }
+    int next = intern(set);
+    if (c < ASCII) table[s * ASCII + c] = next;
+    return next;
+  }
+
+  /** Drops every cached state except the start state, which is re-interned at index 0. */
+  private void flush() {
+    index.clear();
+    stateCount = 0;
+    intern(startSet);
+  }
+
+  private int intern(int[] set) {
+    StateKey key = new StateKey(set);
+    Integer known = index.get(key);
+    if (known != null) return known;
+    int id = stateCount++;
+    if (id == states.length) grow();
+    states[id] = set;
+    boolean isMatch = false;
+    for (int pc : set) {
+      if (prog.op[pc] == Program.MATCH) {
+        isMatch = true;
+        break;
+      }
+    }
+    matching[id] = isMatch;
+    Arrays.fill(table, id * ASCII, (id + 1) * ASCII, UNKNOWN);
+    index.put(key, id);
+    return id;
+  }
+
+  private void grow() {
+    int n = Math.min(states.length * 2, Math.max(maxStates, states.length + 1));
+    states = Arrays.copyOf(states, n);
+    matching = Arrays.copyOf(matching, n);
+    table = Arrays.copyOf(table, n * ASCII);
+  }
+
+  /** Adds the epsilon closure of pc, keeping only instructions that consume input or match. */
+  private void addClosure(int pc) {
+    int top = 0;
+    stack[top++] = pc;
+    while (top > 0) {
+      int cur = stack[--top];
+      if (seen[cur]) continue;
+      seen[cur] = true;
+      switch (prog.op[cur]) {
+        case Program.JMP -> stack[top++] = prog.x[cur];
+        case Program.SPLIT -> {
+          stack[top++] = prog.y[cur];
+          stack[top++] = prog.x[cur];
+        }
+        case Program.SAVE -> stack[top++] = cur + 1;
+        default -> members[memberCount++] = cur;
+      }
+    }
+  }
+
+  private void mark(int pc) {
+    if (!seen[pc]) {
+      seen[pc] = true;
+      members[memberCount++] = pc;
+    }
+  }
+
+  /** Returns the collected members as a sorted set and resets the scratch marks. */
+  private int[] collectMembers() {
+    int[] set = Arrays.copyOf(members, memberCount);
+    Arrays.sort(set);
+    Arrays.fill(seen, false);
+    return set;
+  }
+
+  private static final class StateKey {
+    private final int[] pcs;
+    private final int hash;
+
+    StateKey(int[] pcs) {
+      this.pcs = pcs;
+      this.hash = Arrays.hashCode(pcs);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof StateKey other && Arrays.equals(pcs, other.pcs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
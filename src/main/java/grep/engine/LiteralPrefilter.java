@@ -0,0 +1,173 @@
+package grep.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cheap pre-check run before the matcher. Pattern analysis finds literal strings that every match
+ * must contain (one of several when the pattern alternates), and a Boyer-Moore-Horspool scan
+ * rejects lines containing none of them without ever starting the engine.
+ */
+final class LiteralPrefilter {
+  private static final int MIN_LITERAL_LENGTH = 2;
+  private static final int MAX_LITERALS = 8;
+
+  private final String[] literals;
+  private final int[][] shifts;
+  private final boolean exact;
+
+  private LiteralPrefilter(String[] literals, boolean exact) {
+    this.literals = literals;
+    this.exact = exact;
+    this.shifts = new int[literals.length][];
+    for (int k = 0; k < literals.length; k++) shifts[k] = shiftTable(literals[k]);
+  }
+
+  /**
+   * Returns a prefilter for the pattern, or null when no useful required literal exists (for
+   * example when an alternative is built only from classes and wildcards).
+   */
+  static LiteralPrefilter forPattern(
+      Node[][] alternatives, boolean anchoredStart, boolean anchoredEnd) {
+    Set<String> required = new LinkedHashSet<>();
+    for (Node[] alternative : alternatives) {
+      Set<String> best = best(requiredInSequence(alternative));
+      if (best == null) return null;
+      required.addAll(best);
+    }
+    if (required.size() > MAX_LITERALS) return null;
+    for (String literal : required) {
+      if (literal.length() < MIN_LITERAL_LENGTH) return null;
+    }
+
+    boolean exact =
+        !anchoredStart
+            && !anchoredEnd
+            && alternatives.length == 1
+            && isPlainLiteral(alternatives[0]);
+    return new LiteralPrefilter(required.toArray(new String[0]), exact);
+  }
+
+  /** True if the line contains at least one of the required literals. */
+  boolean mayMatch(CharSequence input) {
+    for (int k = 0; k < literals.length; k++) {
+      if (indexOf(input, literals[k], shifts[k]) >= 0) return true;
+    }
+    return false;
+  }
+
+  List<String> literals() {
+    return List.of(literals);
+  }
+
+  /** True when the pattern is nothing but its literal, so mayMatch is already the final answer. */
+  boolean isExact() {
+    return exact;
+  }
+
+  /**
+   * Collects requirements of a sequence. Each entry is a set of literals of which at least one
+   * must occur in any match; every entry must hold. Contiguous literal characters, including
+   * those of single-alternative groups, are joined into one run.
+   */
+  private static List<Set<String>> requiredInSequence(Node[] seq) {
+    List<Set<String>> required = new ArrayList<>();
+    StringBuilder run = new StringBuilder();
+    collect(seq, run, required);
+    endRun(run, required);
+    return required;
+  }
+
+  private static void collect(Node[] seq, StringBuilder run, List<Set<String>> required) {
+    for (Node node : seq) {
+      if (node.min == 0) {
+        // optional: contributes nothing and breaks contiguity
+        endRun(run, required);
+      } else if (node instanceof Node.Literal literal) {
+        run.append(literal.ch);
+        if (node.isQuantified()) endRun(run, required);
+      } else if (node instanceof Node.Group group) {
+        if (group.alternatives.length == 1 && !group.isQuantified()) {
+          collect(group.alternatives[0], run, required);
+          continue;
+        }
+        endRun(run, required);
+        Set<String> options = new LinkedHashSet<>();
+        for (Node[] alternative : group.alternatives) {
+          Set<String> best = best(requiredInSequence(alternative));
+          if (best == null) {
+            options = null;
+            break;
+          }
+          options.addAll(best);
+        }
+        if (options != null) required.add(options);
+      } else {
+        endRun(run, required);
+      }
+    }
+  }
+
+  private static void endRun(StringBuilder run, List<Set<String>> required) {
+    if (run.length() > 0) {
+      required.add(Set.of(run.toString()));
+      run.setLength(0);
+    }
+  }
+
+  /** Picks the requirement whose shortest literal is longest, preferring fewer alternatives. */
+  private static Set<String> best(List<Set<String>> candidates) {
+    Set<String> best = null;
+    int bestScore = 0;
+    for (Set<String> candidate : candidates) {
+      int shortest = Integer.MAX_VALUE;
+      for (String literal : candidate) shortest = Math.min(shortest, literal.length());
+      int score = shortest * 16 - candidate.size();
+      if (best == null || score > bestScore) {
+        best = candidate;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  private static boolean isPlainLiteral(Node[] seq) {
+    for (Node node : seq) {
+      if (!(node instanceof Node.Literal) || node.isQuantified()) return false;
+    }
+    return true;
+  }
+
+  /** Horspool bad-character shifts, indexed by the low byte of the character. */
+  private static int[] shiftTable(String literal) {
+    int m = literal.length();
+    int[] shift = new int[256];
+    Arrays.fill(shift, m);
+    for (int k = 0; k < m - 1; k++) {
+      int slot = literal.charAt(k) & 0xFF;
+      // characters sharing a low byte share a slot, so keep the smallest (safe) shift
+      shift[slot] = Math.min(shift[slot], m - 1 - k);
+    }
+    return shift;
+  }
+
+  private static int indexOf(CharSequence text, String literal, int[] shift) {
+    int m = literal.length();
+    int n = text.length();
+    char last = literal.charAt(m - 1);
+    int pos = 0;
+    while (pos <= n - m) {
+      char c = text.charAt(pos + m - 1);
+      if (c == last) {
+        int k = m - 2;
+        while (k >= 0 && text.charAt(pos + k) == literal.charAt(k)) k--;
+        if (k < 0) return pos;
+      }
+      pos += shift[c & 0xFF];
+    }
+    return -1;
+  }
+}
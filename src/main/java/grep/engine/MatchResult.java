@@ -0,0 +1,55 @@
+package grep.engine;
+
+/**
+ * Result of a successful {@link CompiledPattern#match(CharSequence)}. Group spans are kept as
+ * offsets into the input; the text of a group is only copied out when {@link #group(int)} is
+ * called. Group 0 is the whole match.
+ */
+public final class MatchResult {
+  private final CharSequence input;
+  private final int[] slots;
+
+  MatchResult(CharSequence input, int[] slots) {
+    this.input = input;
+    this.slots = slots;
+  }
+
+  /** Number of capturing groups in the pattern, not counting group 0. */
+  public int groupCount() {
+    return slots.length / 2 - 1;
+  }
+
+  public int start() {
+    return start(0);
+  }
+
+  public int end() {
+    return end(0);
+  }
+
+  /** Start offset of the group, or -1 if it did not take part in the match. */
+  public int start(int group) {
+    checkGroup(group);
+    return slots[2 * group];
+  }
+
+  /** End offset (exclusive) of the group, or -1 if it did not take part in the match. */
+  public int end(int group) {
+    checkGroup(group);
+    return slots[2 * group + 1];
+  }
+
+  /** Text captured by the group, or null if it did not take part in the match. */
+  public String group(int group) {
+    int start = start(group);
+    int end = end(group);
+    if (start < 0 || end < 0) return null;
+    return input.subSequence(start, end).toString();
+  }
+
+  private void checkGroup(int group) {
+    if (group < 0 || group > groupCount()) {
+      throw new IndexOutOfBoundsException("No group " + group);
+    }
+  }
+}
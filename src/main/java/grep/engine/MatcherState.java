@@ -1,190 +1,243 @@
 package grep.engine;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * Core recursion entrypoint delegated from RegexEngine. This file holds the primary recursive
- * matching loop but delegates token/group/quantifier concerns to TokenMatcher, GroupHandler, and
- * QuantifierHandler.
+ * Core recursion entrypoint delegated from CompiledPattern. This file holds the primary recursive
+ * matching loop over the parsed node sequences but delegates token/group/quantifier concerns to
+ * TokenMatcher, GroupHandler, and QuantifierHandler.
+ *
+ * <p>An instance is the per-thread context of one backtracking search and is reused from line to
+ * line. It holds:
+ *
+ * <ul>
+ *   <li>the capture slots (slot 2n is the start and 2n+1 the end of group n, -1 when unset) and a
+ *       trail of overwritten slot values, so a failed branch is rolled back with {@link #undo}
+ *       instead of working on a copied map;
+ *   <li>a memo of (node, input position) states that already failed on the current line, so the
+ *       split loops never explore the same state twice. Only states whose remaining sequence has
+ *       no backreference are recorded, since only there the outcome cannot depend on captures.
+ * </ul>
+ *
+ * <p>Every call of {@link #matchPattern} is one step. A line that takes more than the step budget
+ * throws {@link StepBudgetExceededException}, which unwinds the whole search of that line.
+ *
+ * <p>Plain group bodies are matched against a slice [i, end) of the line rather than a substring
+ * copy. Repeated group bodies run unbounded with a {@link Continuation} that is handed every
+ * position the body can end at. Every match method leaves the slots untouched when it returns
+ * false.
  */
 final class MatcherState {
+  /** What happens when a sequence matched in continuation mode reaches its end at position i. */
+  interface Continuation {
+    boolean resume(int i);
+  }
+
+  /** Lines whose memo would need more bits than this are matched without one. */
+  private static final long MAX_MEMO_BITS = 1L << 26;
+
+  private final Node[][] rootAlternatives;
+  private final boolean[] memoizable;
+  private final boolean anyMemoizable;
+  private final boolean rootAnchoredEnd;
+  private final long stepBudget;
+
+  private CharSequence input;
+  private int length;
+
+  final int[] slots;
+  private int[] trail = new int[32];
+  private int trailSize;
+
+  private long[] failed = new long[0];
+  private int stride;
+  private boolean memoActive;
+  private long steps;
+
+  /** Lines searched and steps taken on earlier lines by this instance, for statistics. */
+  long runs;
 
-  private MatcherState() {}
+  private long pastSteps;
 
-  static boolean matchPattern(
-      String input,
-      int i,
-      String pattern,
-      int j,
-      int patternEnd,
+  MatcherState(
+      Node[][] rootAlternatives,
+      int groupCount,
+      boolean[] memoizable,
       boolean anchoredEnd,
-      Map<Integer, String> groups) {
-
-    // top-level alternation optimization: split by '|' at the top level
-    List<int[]> topParts = PatternUtils.splitTopLevelIndices(pattern, j, patternEnd, '|');
-    if (topParts.size() > 1) {
-      for (int[] part : topParts) {
-        int partStart = part[0], partEnd = part[1];
-        Map<Integer, String> cloned = new HashMap<>(groups);
-        if (matchPattern(input, i, pattern, partStart, partEnd, anchoredEnd, cloned)) {
-          groups.clear();
-          groups.putAll(cloned);
-          return true;
-        }
+      long stepBudget) {
+    this.rootAlternatives = rootAlternatives;
+    this.memoizable = memoizable;
+    this.rootAnchoredEnd = anchoredEnd;
+    this.stepBudget = stepBudget;
+    this.slots = new int[2 * (groupCount + 1)];
+    boolean any = false;
+    for (boolean m : memoizable) any |= m;
+    this.anyMemoizable = any;
+  }
+
+  /** Prepares captures, memo and step count for a new line. */
+  void reset(CharSequence line) {
+    input = line;
+    length = line.length();
+    runs++;
+    pastSteps += steps;
+    steps = 0;
+    Arrays.fill(slots, -1);
+    trailSize = 0;
+    stride = length + 1;
+    long bits = (long) memoizable.length * stride;
+    memoActive = anyMemoizable && bits <= MAX_MEMO_BITS;
+    if (memoActive) {
+      int words = (int) ((bits + 63) >>> 6);
+      if (failed.length < words) {
+        failed = new long[Math.max(words, failed.length * 2)];
+      } else {
+        Arrays.fill(failed, 0, words, 0L);
       }
-      return false;
     }
+  }
+
+  /** Steps taken by this instance on every line so far. */
+  long totalSteps() {
+    return pastSteps + steps;
+  }
+
+  /** Tries a whole-pattern match starting at i; on success slots hold the capture spans. */
+  boolean matchAt(int i) {
+    int mark = mark();
+    setSlot(0, i);
+    if (matchAlternatives(i, length, rootAlternatives, rootAnchoredEnd, null)) return true;
+    undo(mark);
+    return false;
+  }
+
+  char charAt(int i) {
+    return input.charAt(i);
+  }
+
+  int length() {
+    return length;
+  }
+
+  int mark() {
+    return trailSize;
+  }
+
+  /** Rolls every slot written since mark back to its previous value. */
+  void undo(int mark) {
+    while (trailSize > mark) {
+      trailSize -= 2;
+      slots[trail[trailSize]] = trail[trailSize + 1];
+    }
+  }
+
+  void setSlot(int slot, int value) {
+    if (trailSize + 2 > trail.length) trail = Arrays.copyOf(trail, trail.length * 2);
+    trail[trailSize++] = slot;
+    trail[trailSize++] = slots[slot];
+    slots[slot] = value;
+  }
+
+  /**
+   * True if the text captured by group occurs at position i, ending no later than end. A group
+   * that the pattern does not have never captured anything, so a reference to it never matches.
+   */
+  boolean capturedTextAt(int group, int i, int end) {
+    if (2 * group + 1 >= slots.length) return false;
+    int start = slots[2 * group];
+    int stop = slots[2 * group + 1];
+    if (start < 0 || stop < 0) return false;
+    int len = stop - start;
+    if (i + len > end) return false;
+    for (int k = 0; k < len; k++) {
+      if (input.charAt(i + k) != input.charAt(start + k)) return false;
+    }
+    return true;
+  }
 
-    if (j == patternEnd) {
-      return !anchoredEnd || i == input.length();
+  /**
+   * Tries each alternative in order; the first one that matches wins and keeps its captures. A
+   * null continuation means the alternatives must end the match (or slice) themselves.
+   */
+  boolean matchAlternatives(
+      int i, int end, Node[][] alternatives, boolean anchoredEnd, Continuation cont) {
+    for (Node[] alternative : alternatives) {
+      if (matchPattern(i, end, alternative, 0, anchoredEnd, cont)) return true;
     }
-    if (i > input.length()) return false;
-
-    char pc = pattern.charAt(j);
-
-    boolean hasPlus, hasQuestion, hasStar;
-    if (pc == '\\') {
-      hasPlus = (j + 2 < patternEnd && pattern.charAt(j + 2) == '+');
-      hasQuestion = (j + 2 < patternEnd && pattern.charAt(j + 2) == '?');
-      hasStar = (j + 2 < patternEnd && pattern.charAt(j + 2) == '*');
-    } else {
-      hasPlus = (j + 1 < patternEnd && pattern.charAt(j + 1) == '+');
-      hasQuestion = (j + 1 < patternEnd && pattern.charAt(j + 1) == '?');
-      hasStar = (j + 1 < patternEnd && pattern.charAt(j + 1) == '*');
+    return false;
+  }
+
+  boolean matchPattern(int i, int end, Node[] seq, int j, boolean anchoredEnd, Continuation cont) {
+    if (++steps > stepBudget) throw new StepBudgetExceededException(stepBudget);
+
+    if (j == seq.length) {
+      if (cont != null) return cont.resume(i);
+      if (anchoredEnd && i != end) return false;
+      if (end == length && isRoot(seq)) setSlot(1, i);
+      return true;
     }
+    if (i > end) return false;
 
-    // Groups / alternation inside groups
-    if (pc == '(') {
-      int closing = PatternUtils.findClosingParen(pattern, j);
-      int insideStart = j + 1;
-      boolean topLevelAlt = PatternUtils.hasTopLevelDelimiter(pattern, insideStart, closing, '|');
-      char next = (closing + 1 < patternEnd) ? pattern.charAt(closing + 1) : '\0';
-      Integer groupIndexObj = PatternUtils.getGroupIndexForParen(j);
-      int groupIndex = groupIndexObj != null ? groupIndexObj : (groups.size() + 1);
-
-      if (topLevelAlt) {
-        if (next == '+') {
-          return QuantifierHandler.handleGroupRepeat(
-              input,
-              i,
-              pattern,
-              j,
-              closing,
-              patternEnd,
-              anchoredEnd,
-              groups,
-              groupIndex,
-              1,
-              Integer.MAX_VALUE);
-        } else if (next == '?') {
-          return QuantifierHandler.handleGroupRepeat(
-              input, i, pattern, j, closing, patternEnd, anchoredEnd, groups, groupIndex, 0, 1);
-        } else if (next == '*') {
-          return QuantifierHandler.handleGroupRepeat(
-              input,
-              i,
-              pattern,
-              j,
-              closing,
-              patternEnd,
-              anchoredEnd,
-              groups,
-              groupIndex,
-              0,
-              Integer.MAX_VALUE);
-        } else {
-          return GroupHandler.handleAlternation(
-              input, i, pattern, j, closing, patternEnd, anchoredEnd, groups, groupIndex);
-        }
-      } else {
-        if (next == '+') {
-          return QuantifierHandler.handleGroupRepeat(
-              input,
-              i,
-              pattern,
-              j,
-              closing,
-              patternEnd,
-              anchoredEnd,
-              groups,
-              groupIndex,
-              1,
-              Integer.MAX_VALUE);
-        } else if (next == '?') {
-          return QuantifierHandler.handleGroupRepeat(
-              input, i, pattern, j, closing, patternEnd, anchoredEnd, groups, groupIndex, 0, 1);
-        } else if (next == '*') {
-          return QuantifierHandler.handleGroupRepeat(
-              input,
-              i,
-              pattern,
-              j,
-              closing,
-              patternEnd,
-              anchoredEnd,
-              groups,
-              groupIndex,
-              0,
-              Integer.MAX_VALUE);
-        } else {
-          // inline the group: try all candidate lengths
-          for (int len = 0; len <= input.length() - i; len++) {
-            String candidate = input.substring(i, i + len);
-            Map<Integer, String> newGroups = new HashMap<>(groups);
-            if (matchPattern(candidate, 0, pattern, insideStart, closing, true, newGroups)) {
-              newGroups.put(groupIndex, candidate);
-              if (matchPattern(
-                  input, i + len, pattern, closing + 1, patternEnd, anchoredEnd, newGroups)) {
-                groups.clear();
-                groups.putAll(newGroups);
-                return true;
-              }
-            }
-          }
-          return false;
-        }
-      }
+    Node node = seq[j];
+
+    // the state is only keyed by (node, i) when it runs on the whole line, not a group slice,
+    // and nothing but the rest of its own sequence decides the outcome
+    boolean memo =
+        memoActive
+            && cont == null
+            && end == length
+            && anchoredEnd == rootAnchoredEnd
+            && memoizable[node.id];
+    long bit = 0;
+    if (memo) {
+      bit = (long) node.id * stride + i;
+      if ((failed[(int) (bit >>> 6)] & (1L << bit)) != 0) return false;
     }
 
-    // escapes
-    if (pc == '\\') {
-      if (hasPlus) {
-        return QuantifierHandler.handleSingleTokenRepeat(
-            input, i, pattern, j, patternEnd, anchoredEnd, groups, 1, Integer.MAX_VALUE, true);
-      } else if (hasQuestion) {
-        return QuantifierHandler.handleSingleTokenRepeat(
-            input, i, pattern, j, patternEnd, anchoredEnd, groups, 0, 1, true);
-      } else if (hasStar) {
-        return QuantifierHandler.handleSingleTokenRepeat(
-            input, i, pattern, j, patternEnd, anchoredEnd, groups, 0, Integer.MAX_VALUE, true);
-      } else {
-        return TokenMatcher.handleEscape(input, i, pattern, j, patternEnd, anchoredEnd, groups);
+    boolean matched = dispatch(i, end, seq, j, anchoredEnd, cont);
+    if (!matched && memo) {
+      failed[(int) (bit >>> 6)] |= 1L << bit;
+    }
+    return matched;
+  }
+
+  private boolean dispatch(
+      int i, int end, Node[] seq, int j, boolean anchoredEnd, Continuation cont) {
+    Node node = seq[j];
+
+    // Groups / alternation inside groups
+    if (node instanceof Node.Group) {
+      if (node.isQuantified()) {
+        return QuantifierHandler.handleGroupRepeat(this, i, end, seq, j, anchoredEnd, cont);
       }
+      return GroupHandler.handleAlternation(this, i, end, seq, j, anchoredEnd, cont);
     }
 
     // character class
-    if (pc == '[') {
-      return TokenMatcher.handleCharacterClass(
-          input, i, pattern, j, patternEnd, anchoredEnd, groups);
+    if (node instanceof Node.CharSet) {
+      return TokenMatcher.handleCharacterClass(this, i, end, seq, j, anchoredEnd, cont);
     }
 
     // quantifiers for a single token
-    if (hasPlus) {
-      return QuantifierHandler.handleSingleTokenRepeat(
-          input, i, pattern, j, patternEnd, anchoredEnd, groups, 1, Integer.MAX_VALUE, false);
-    } else if (hasQuestion) {
-      return QuantifierHandler.handleSingleTokenRepeat(
-          input, i, pattern, j, patternEnd, anchoredEnd, groups, 0, 1, false);
-    } else if (hasStar) {
-      return QuantifierHandler.handleSingleTokenRepeat(
-          input, i, pattern, j, patternEnd, anchoredEnd, groups, 0, Integer.MAX_VALUE, false);
+    if (node.isQuantified()) {
+      return QuantifierHandler.handleSingleTokenRepeat(this, i, end, seq, j, anchoredEnd, cont);
+    }
+
+    // escapes and backreferences
+    if (node instanceof Node.Escape || node instanceof Node.BackRef) {
+      return TokenMatcher.handleEscape(this, i, end, seq, j, anchoredEnd, cont);
     }
 
     // literal or dot
-    if (i < input.length() && TokenMatcher.charMatches(input.charAt(i), pc)) {
-      return matchPattern(input, i + 1, pattern, j + 1, patternEnd, anchoredEnd, groups);
+    if (i < end && TokenMatcher.charMatches(input.charAt(i), node)) {
+      return matchPattern(i + 1, end, seq, j + 1, anchoredEnd, cont);
+    }
+    return false;
+  }
+
+  private boolean isRoot(Node[] seq) {
+    for (Node[] alternative : rootAlternatives) {
+      if (alternative == seq) return true;
     }
     return false;
   }
@@ -0,0 +1,86 @@
+package grep.engine;
+
+/**
+ * Parsed pattern element. A pattern is compiled once into sequences of nodes ({@code Node[]}) and
+ * sets of alternatives ({@code Node[][]}), so the matchers never re-scan the raw pattern string.
+ */
+abstract class Node {
+  /** Position of this node in the whole pattern, unique per compile; indexes per-node tables. */
+  final int id;
+
+  /** Repetition bounds taken from a trailing + ? or *; {1, 1} when the token is not quantified. */
+  final int min;
+
+  final int max;
+
+  private Node(int id, int min, int max) {
+    this.id = id;
+    this.min = min;
+    this.max = max;
+  }
+
+  boolean isQuantified() {
+    return min != 1 || max != 1;
+  }
+
+  /** A plain character, including escaped metacharacters such as \. or \(. */
+  static final class Literal extends Node {
+    final char ch;
+
+    Literal(int id, char ch, int min, int max) {
+      super(id, min, max);
+      this.ch = ch;
+    }
+  }
+
+  /** The '.' wildcard. */
+  static final class AnyChar extends Node {
+    AnyChar(int id, int min, int max) {
+      super(id, min, max);
+    }
+  }
+
+  /** The \d and \w shorthand classes. */
+  static final class Escape extends Node {
+    final char type;
+    final CharClass chars;
+
+    Escape(int id, char type, int min, int max) {
+      super(id, min, max);
+      this.type = type;
+      this.chars = type == 'd' ? CharClass.DIGIT : CharClass.WORD;
+    }
+  }
+
+  /** A bracket expression such as [a-z] or [^xyz], compiled when the pattern is parsed. */
+  static final class CharSet extends Node {
+    final CharClass chars;
+
+    CharSet(int id, CharClass chars, int min, int max) {
+      super(id, min, max);
+      this.chars = chars;
+    }
+  }
+
+  /** A capturing group with one or more alternatives. */
+  static final class Group extends Node {
+    final int index;
+    final Node[][] alternatives;
+
+    Group(int id, int index, Node[][] alternatives, int min, int max) {
+      super(id, min, max);
+      this.index = index;
+      this.alternatives = alternatives;
+    }
+  }
+
+  /** A backreference such as \1. */
+  static final class BackRef extends Node {
+    final int group;
+
+    BackRef(int id, int group, int min, int max) {
+      super(id, min, max);
+      this.group = group;
+    }
+  }
+}
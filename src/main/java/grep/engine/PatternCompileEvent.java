@@ -0,0 +1,31 @@
+package grep.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one {@link RegexEngine#compile} call, timed from the start of parsing
+ * to the finished {@link CompiledPattern}. Not committed when the pattern does not parse.
+ */
+@Name("grep.PatternCompile")
+@Label("Pattern Compile")
+@Category("grep")
+@Description("A pattern parsed and compiled by the regex engine")
+@StackTrace(false)
+final class PatternCompileEvent extends jdk.jfr.Event {
+  @Label("Pattern")
+  String pattern;
+
+  @Label("Capture Groups")
+  int groups;
+
+  @Label("Backtracking")
+  @Description("Whether lines are matched by the backtracker, for backreferences")
+  boolean backtracking;
+
+  @Label("Step Budget")
+  long stepBudget;
+}
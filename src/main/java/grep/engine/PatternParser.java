@@ -0,0 +1,230 @@
+package grep.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns a pattern string into a {@link CompiledPattern}. Groups, classes, quantifiers and
+ * alternation are resolved here once, so matching never has to look for closing brackets or
+ * top-level '|' again. A parser instance is confined to a single compile call.
+ */
+final class PatternParser {
+  private final String pattern;
+  private final Map<Integer, Integer> parenToGroupNum;
+  private boolean hasBackrefs;
+  private int nodeCount;
+  // per node id: true if the rest of its sequence, from that node on, holds no backreference
+  private final List<Boolean> backrefFreeSuffix = new ArrayList<>();
+  private final Map<Integer, Node.Group> groups = new HashMap<>();
+
+  private PatternParser(String pattern) {
+    this.pattern = pattern;
+    this.parenToGroupNum = PatternUtils.buildParenIndexMap(pattern);
+  }
+
+  static CompiledPattern parse(String pattern, long stepBudget) {
+    boolean anchoredStart = pattern.startsWith("^");
+    boolean anchoredEnd = pattern.endsWith("$") && !isEscaped(pattern, pattern.length() - 1);
+    int patternStart = anchoredStart ? 1 : 0;
+    int patternEnd = Math.max(patternStart, anchoredEnd ? pattern.length() - 1 : pattern.length());
+
+    PatternParser parser = new PatternParser(pattern);
+    Node[][] alternatives = parser.parseAlternatives(patternStart, patternEnd);
+    int groupCount = parser.parenToGroupNum.size();
+    Program program = parser.hasBackrefs ? null : Program.compile(alternatives, groupCount);
+    LiteralPrefilter prefilter =
+        LiteralPrefilter.forPattern(alternatives, anchoredStart, anchoredEnd);
+    StartSet startSet = StartSet.forPattern(alternatives);
+    CompiledPattern linear = null;
+    Node[][] relaxed = parser.hasBackrefs ? parser.relax(alternatives, new HashSet<>()) : null;
+    if (relaxed != null) {
+      linear =
+          new CompiledPattern(
+              pattern,
+              relaxed,
+              Program.compile(relaxed, groupCount),
+              LiteralPrefilter.forPattern(relaxed, anchoredStart, anchoredEnd),
+              StartSet.forPattern(relaxed),
+              new boolean[0],
+              anchoredStart,
+              anchoredEnd,
+              groupCount,
+              stepBudget,
+              null);
+    }
+    boolean[] memoizable = new boolean[parser.nodeCount];
+    for (int id = 0; id < memoizable.length; id++) {
+      memoizable[id] = parser.backrefFreeSuffix.get(id);
+    }
+    return new CompiledPattern(
+        pattern,
+        alternatives,
+        program,
+        prefilter,
+        startSet,
+        memoizable,
+        anchoredStart,
+        anchoredEnd,
+        groupCount,
+        stepBudget,
+        linear);
+  }
+
+  private Node[][] parseAlternatives(int start, int end) {
+    List<int[]> parts = PatternUtils.splitTopLevelIndices(pattern, start, end, '|');
+    Node[][] alternatives = new Node[parts.size()][];
+    for (int p = 0; p < parts.size(); p++) {
+      alternatives[p] = parseSequence(parts.get(p)[0], parts.get(p)[1]);
+    }
+    return alternatives;
+  }
+
+  private Node[] parseSequence(int start, int end) {
+    List<Node> nodes = new ArrayList<>();
+    int j = start;
+    while (j < end) {
+      char pc = pattern.charAt(j);
+      int tokenEnd; // exclusive end of the token, before any quantifier
+      Node node;
+
+      if (pc == '(') {
+        int closing = PatternUtils.findClosingParen(pattern, j);
+        if (closing >= end) throw new RuntimeException("Unmatched ( in pattern: " + pattern);
+        tokenEnd = closing + 1;
+        int[] q = quantifierAt(tokenEnd, end);
+        int groupIndex = parenToGroupNum.get(j);
+        Node[][] body = parseAlternatives(j + 1, closing);
+        node = new Node.Group(nextId(), groupIndex, body, q[0], q[1]);
+        groups.put(groupIndex, (Node.Group) node);
+      } else if (pc == '[') {
+        int closing = PatternUtils.findClosingBracket(pattern, j);
+        if (closing == -1 || closing >= end) {
+          throw new RuntimeException("Unclosed character class: " + pattern);
+        }
+        tokenEnd = closing + 1;
+        int[] q = quantifierAt(tokenEnd, end);
+        String members = pattern.substring(j + 1, closing);
+        boolean negate = members.startsWith("^");
+        if (negate) members = members.substring(1);
+        node = new Node.CharSet(nextId(), CharClass.parse(members, negate), q[0], q[1]);
+      } else if (pc == '\\') {
+        if (j + 1 >= end) throw new RuntimeException("Dangling escape in pattern");
+        char escaped = pattern.charAt(j + 1);
+        if (Character.isDigit(escaped)) {
+          int k = j + 1;
+          int groupNum = 0;
+          while (k < end && Character.isDigit(pattern.charAt(k))) {
+            groupNum = groupNum * 10 + (pattern.charAt(k) - '0');
+            k++;
+          }
+          tokenEnd = k;
+          int[] q = quantifierAt(tokenEnd, end);
+          node = new Node.BackRef(nextId(), groupNum, q[0], q[1]);
+          hasBackrefs = true;
+        } else {
+          tokenEnd = j + 2;
+          int[] q = quantifierAt(tokenEnd, end);
+          node =
+              (escaped == 'd' || escaped == 'w')
+                  ? new Node.Escape(nextId(), escaped, q[0], q[1])
+                  : new Node.Literal(nextId(), escaped, q[0], q[1]);
+        }
+      } else {
+        tokenEnd = j + 1;
+        int[] q = quantifierAt(tokenEnd, end);
+        node =
+            pc == '.'
+                ? new Node.AnyChar(nextId(), q[0], q[1])
+                : new Node.Literal(nextId(), pc, q[0], q[1]);
+      }
+
+      nodes.add(node);
+      j = node.isQuantified() ? tokenEnd + 1 : tokenEnd;
+    }
+
+    boolean suffixFree = true;
+    for (int k = nodes.size() - 1; k >= 0; k--) {
+      Node node = nodes.get(k);
+      suffixFree = suffixFree && !containsBackref(node);
+      backrefFreeSuffix.set(node.id, suffixFree);
+    }
+    return nodes.toArray(new Node[0]);
+  }
+
+  /**
+   * Copies alternatives with every backreference replaced by the body of the group it refers to,
+   * repeated the same way. The copy has no backreferences and matches every text the original
+   * matches, and possibly more. Returns null when a reference points to a missing group or into
+   * the group it refers to, which the copy cannot express; open holds the groups being copied.
+   */
+  private Node[][] relax(Node[][] alternatives, Set<Integer> open) {
+    Node[][] copy = new Node[alternatives.length][];
+    for (int a = 0; a < alternatives.length; a++) {
+      Node[] seq = alternatives[a];
+      copy[a] = new Node[seq.length];
+      for (int k = 0; k < seq.length; k++) {
+        Node node = seq[k];
+        Node.Group target = null;
+        if (node instanceof Node.BackRef ref) {
+          target = groups.get(ref.group);
+          if (target == null) return null;
+        } else if (node instanceof Node.Group group) {
+          target = group;
+        }
+        if (target != null) {
+          if (!open.add(target.index)) return null;
+          Node[][] body = relax(target.alternatives, open);
+          open.remove(target.index);
+          if (body == null) return null;
+          node = new Node.Group(node.id, target.index, body, node.min, node.max);
+        }
+        copy[a][k] = node;
+      }
+    }
+    return copy;
+  }
+
+  private int nextId() {
+    backrefFreeSuffix.add(Boolean.FALSE);
+    return nodeCount++;
+  }
+
+  private static boolean containsBackref(Node node) {
+    if (node instanceof Node.BackRef) return true;
+    if (node instanceof Node.Group group) {
+      for (Node[] alternative : group.alternatives) {
+        for (Node child : alternative) {
+          if (containsBackref(child)) return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Repetition bounds for the quantifier at pos, or {1, 1} if there is none. */
+  private int[] quantifierAt(int pos, int end) {
+    if (pos < end) {
+      switch (pattern.charAt(pos)) {
+        case '+':
+          return new int[] {1, Integer.MAX_VALUE};
+        case '?':
+          return new int[] {0, 1};
+        case '*':
+          return new int[] {0, Integer.MAX_VALUE};
+        default:
+          break;
+      }
+    }
+    return new int[] {1, 1};
+  }
+
+  private static boolean isEscaped(String pattern, int pos) {
+    int backslashes = 0;
+    for (int k = pos - 1; k >= 0 && pattern.charAt(k) == '\\'; k--) backslashes++;
+    return backslashes % 2 == 1;
+  }
+}
@@ -7,17 +7,18 @@
 
 /**
  * Utility helpers: findClosingParen, findClosingBracket, splitTopLevelIndices, paren-to-group map
- * management.
+ * construction. Stateless; safe to call from any thread.
  */
 final class PatternUtils {
-  private static final Map<Integer, Integer> parenToGroupNum = new HashMap<>();
-  private static int totalGroupCount = 0;
-
   private PatternUtils() {}
 
-  static void buildParenIndexMap(String pattern) {
-    parenToGroupNum.clear();
-    totalGroupCount = 0;
+  /**
+   * Maps the index of every capturing '(' to its group number (1-based, in order of appearance).
+   * The result is immutable and owned by the caller, so concurrent compiles never share it.
+   */
+  static Map<Integer, Integer> buildParenIndexMap(String pattern) {
+    Map<Integer, Integer> parenToGroupNum = new HashMap<>();
+    int totalGroupCount = 0;
     boolean inCharClass = false;
     for (int i = 0; i < pattern.length(); i++) {
       char c = pattern.charAt(i);
@@ -38,10 +39,7 @@ static void buildParenIndexMap(String pattern) {
         parenToGroupNum.put(i, totalGroupCount);
       }
     }
-  }
-
-  static Integer getGroupIndexForParen(int pos) {
-    return parenToGroupNum.get(pos);
+    return Map.copyOf(parenToGroupNum);
   }
 
   static int findClosingBracket(String pattern, int start) {
@@ -82,30 +80,6 @@ else if (c == ')') {
     throw new RuntimeException("Unmatched ( in pattern: " + pattern);
   }
 
-  static boolean hasTopLevelDelimiter(String pattern, int start, int end, char delimiter) {
-    int depth = 0;
-    boolean inCharClass = false;
-    for (int k = start; k < end; k++) {
-      char c = pattern.charAt(k);
-      if (c == '\\') {
-        k++;
-        continue;
-      }
-      if (inCharClass) {
-        if (c == ']') inCharClass = false;
-        continue;
-      }
-      if (c == '[') {
-        inCharClass = true;
-        continue;
-      }
-      if (c == '(') depth++;
-      else if (c == ')') depth--;
-      else if (c == delimiter && depth == 0) return true;
-    }
-    return false;
-  }
-
   static List<int[]> splitTopLevelIndices(String pattern, int start, int end, char delimiter) {
     List<int[]> parts = new ArrayList<>();
     int depth = 0;
@@ -0,0 +1,162 @@
+package grep.engine;
+
+import java.util.Arrays;
+
+/**
+ * Linear-time simulation of a {@link Program} (Pike VM). All live threads advance in lock step, one
+ * input character at a time, and at most one thread per pc is kept, so a search costs
+ * O(input length x program size) regardless of how ambiguous the pattern is. Threads are kept in
+ * priority order, which gives leftmost-first, greedy capture results (a quantified group captures
+ * its last iteration).
+ *
+ * <p>Capture slots of every thread live in one flat table per thread list and are copied row to
+ * row, so a search allocates nothing once the instance exists. Instances are not thread-safe;
+ * {@link CompiledPattern} keeps one per thread.
+ */
+final class PikeVM {
+  private final Program prog;
+  private final StartSet startSet;
+  private final boolean anchoredStart;
+  private final boolean anchoredEnd;
+  private final int slotCount;
+
+  private Threads clist;
+  private Threads nlist;
+  private final int[] current;
+
+  /** Searches run by this instance, for statistics. */
+  long runs;
+
+  PikeVM(Program prog, StartSet startSet, boolean anchoredStart, boolean anchoredEnd) {
+    this.prog = prog;
+    this.startSet = startSet;
+    this.anchoredStart = anchoredStart;
+    this.anchoredEnd = anchoredEnd;
+    this.slotCount = prog.slotCount;
+    this.clist = new Threads(prog.size(), slotCount);
+    this.nlist = new Threads(prog.size(), slotCount);
+    this.current = new int[slotCount];
+  }
+
+  /**
+   * Unanchored search (unless anchoredStart). When slots is non-null it receives the capture
+   * positions of the match, -1 for groups that did not participate; when it is null the search
+   * stops at the first match.
+   */
+  boolean search(CharSequence input, int[] slots) {
+    runs++;
+    int len = input.length();
+    boolean wantCaps = slots != null;
+    clist.clear();
+    nlist.clear();
+
+    boolean matched = false;
+    for (int sp = 0; ; sp++) {
+      // a new attempt at sp has lower priority than every thread already running
+      if (!matched && (sp == 0 || !anchoredStart)) {
+        if (clist.size == 0) {
+          // nothing is running, so jump to the next offset where a match can begin
+          int next = startSet.next(input, sp);
+          if (next < 0 || (anchoredStart && next != 0)) break;
+          sp = next;
+        }
+        Arrays.fill(current, -1);
+        addThread(clist, 0, sp);
+      }
+      if (clist.size == 0) break;
+
+      char c = sp < len ? input.charAt(sp) : '\0';
+      for (int t = 0; t < clist.size; t++) {
+        int pc = clist.dense[t];
+        boolean consumes;
+        switch (prog.op[pc]) {
+          case Program.MATCH:
+            if (anchoredEnd && sp != len) continue;
+            if (!wantCaps) return true;
+            System.arraycopy(clist.caps, t * slotCount, slots, 0, slotCount);
+            matched = true;
+            // lower-priority threads can no longer win
+            t = clist.size;
+            continue;
+          case Program.CHAR:
+            consumes = sp < len && c == prog.x[pc];
+            break;
+          case Program.ANY:
+            consumes = sp < len;
+            break;
+          case Program.CLASS:
+            consumes = sp < len && TokenMatcher.charMatches(c, prog.token[pc]);
+            break;
+          default:
+            consumes = false; // JMP/SPLIT/SAVE were already followed by addThread
+            break;
+        }
+        if (consumes) {
+          System.arraycopy(clist.caps, t * slotCount, current, 0, slotCount);
+          addThread(nlist, pc + 1, sp + 1);
+        }
+      }
+
+      if (sp >= len) break;
+      Threads tmp = clist;
+      clist = nlist;
+      nlist = tmp;
+      nlist.clear();
+    }
+    return matched;
+  }
+
+  /** Follows epsilon edges from pc; current holds the thread's slots and is restored on return. */
+  private void addThread(Threads list, int pc, int pos) {
+    if (list.contains(pc)) return;
+    int t = list.add(pc);
+    switch (prog.op[pc]) {
+      case Program.JMP:
+        addThread(list, prog.x[pc], pos);
+        break;
+      case Program.SPLIT:
+        addThread(list, prog.x[pc], pos);
+        addThread(list, prog.y[pc], pos);
+        break;
+      case Program.SAVE:
+        int slot = prog.x[pc];
+        int old = current[slot];
+        current[slot] = pos;
+        addThread(list, pc + 1, pos);
+        current[slot] = old;
+        break;
+      default:
+        System.arraycopy(current, 0, list.caps, t * slotCount, slotCount);
+        break;
+    }
+  }
+
+  /** Sparse set of pcs, in insertion (priority) order, with one row of capture slots each. */
+  private static final class Threads {
+    final int[] sparse;
+    final int[] dense;
+    final int[] caps;
+    int size;
+
+    Threads(int capacity, int slotCount) {
+      sparse = new int[capacity];
+      dense = new int[capacity];
+      caps = new int[capacity * slotCount];
+    }
+
+    boolean contains(int pc) {
+      int k = sparse[pc];
+      return k < size && dense[k] == pc;
+    }
+
+    int add(int pc) {
+      sparse[pc] = size;
+      dense[size] = pc;
+      return size++;
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+}
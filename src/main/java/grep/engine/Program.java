@@ -0,0 +1,132 @@
+package grep.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thompson NFA compiled from the parsed node tree. Instructions are stored in parallel arrays and
+ * addressed by index (pc). Only backreference-free patterns can be expressed as a program; the
+ * rest stay on the backtracker.
+ *
+ * <p>Capture slots follow the usual layout: slot 2n holds the start and 2n+1 the end of group n,
+ * with group 0 being the whole match.
+ */
+final class Program {
+  static final int CHAR = 0; // consume x (a char value)
+  static final int ANY = 1; // consume any char
+  static final int CLASS = 2; // consume a char accepted by token[pc]
+  static final int SPLIT = 3; // fork to x (preferred) and y
+  static final int JMP = 4; // continue at x
+  static final int SAVE = 5; // record the current position in slot x
+  static final int MATCH = 6;
+
+  final int[] op;
+  final int[] x;
+  final int[] y;
+  final Node[] token;
+  final int slotCount;
+
+  private Program(int[] op, int[] x, int[] y, Node[] token, int slotCount) {
+    this.op = op;
+    this.x = x;
+    this.y = y;
+    this.token = token;
+    this.slotCount = slotCount;
+  }
+
+  int size() {
+    return op.length;
+  }
+
+  static Program compile(Node[][] alternatives, int groupCount) {
+    Builder b = new Builder();
+    b.emit(SAVE, 0, 0, null);
+    b.alternatives(alternatives);
+    b.emit(SAVE, 1, 0, null);
+    b.emit(MATCH, 0, 0, null);
+    return b.build(2 * (groupCount + 1));
+  }
+
+  private static final class Builder {
+    private final List<Integer> op = new ArrayList<>();
+    private final List<Integer> x = new ArrayList<>();
+    private final List<Integer> y = new ArrayList<>();
+    private final List<Node> token = new ArrayList<>();
+
+    int pc() {
+      return op.size();
+    }
+
+    int emit(int code, int xArg, int yArg, Node tok) {
+      op.add(code);
+      x.add(xArg);
+      y.add(yArg);
+      token.add(tok);
+      return op.size() - 1;
+    }
+
+    void alternatives(Node[][] alternatives) {
+      List<Integer> exits = new ArrayList<>();
+      for (int k = 0; k < alternatives.length - 1; k++) {
+        int split = emit(SPLIT, pc() + 1, -1, null);
+        sequence(alternatives[k]);
+        exits.add(emit(JMP, -1, 0, null));
+        y.set(split, pc());
+      }
+      sequence(alternatives[alternatives.length - 1]);
+      for (int exit : exits) x.set(exit, pc());
+    }
+
+    void sequence(Node[] seq) {
+      for (Node node : seq) quantified(node);
+    }
+
+    void quantified(Node node) {
+      if (!node.isQuantified()) {
+        atom(node);
+      } else if (node.min == 0 && node.max == 1) {
+        int split = emit(SPLIT, pc() + 1, -1, null);
+        atom(node);
+        y.set(split, pc());
+      } else if (node.min == 0) {
+        int loop = emit(SPLIT, pc() + 1, -1, null);
+        atom(node);
+        emit(JMP, loop, 0, null);
+        y.set(loop, pc());
+      } else {
+        int start = pc();
+        atom(node);
+        emit(SPLIT, start, pc() + 1, null);
+      }
+    }
+
+    void atom(Node node) {
+      if (node instanceof Node.Literal literal) {
+        emit(CHAR, literal.ch, 0, null);
+      } else if (node instanceof Node.AnyChar) {
+        emit(ANY, 0, 0, null);
+      } else if (node instanceof Node.Group group) {
+        emit(SAVE, 2 * group.index, 0, null);
+        alternatives(group.alternatives);
+        emit(SAVE, 2 * group.index + 1, 0, null);
+      } else if (node instanceof Node.BackRef) {
+        throw new IllegalStateException("Backreferences cannot be compiled to an NFA program");
+      } else {
+        emit(CLASS, 0, 0, node);
+      }
+    }
+
+    Program build(int slotCount) {
+      int n = op.size();
+      int[] ops = new int[n];
+      int[] xs = new int[n];
+      int[] ys = new int[n];
+      for (int k = 0; k < n; k++) {
+        ops[k] = op.get(k);
+        xs[k] = x.get(k);
+        ys[k] = y.get(k);
+      }
+      return new Program(ops, xs, ys, token.toArray(new Node[0]), slotCount);
+    }
+  }
+}
@@ -1,44 +1,30 @@
 package grep.engine;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 /** Handles + ? * quantifiers for both single tokens and groups (greedy backtracking). */
 final class QuantifierHandler {
   private QuantifierHandler() {}
 
   static boolean handleSingleTokenRepeat(
-      String input,
+      MatcherState m,
       int i,
-      String pattern,
+      int end,
+      Node[] seq,
       int j,
-      int patternEnd,
       boolean anchoredEnd,
-      Map<Integer, String> groups,
-      int min,
-      int max,
-      boolean specialToken) {
-
-    int tokenEndJ;
-    if (specialToken) {
-      int k = j + 1;
-      if (k < pattern.length() && Character.isDigit(pattern.charAt(k))) {
-        while (k < patternEnd && Character.isDigit(pattern.charAt(k))) k++;
-        tokenEndJ = k - 1;
-      } else {
-        tokenEndJ = j + 1;
-      }
-    } else {
-      tokenEndJ = j;
-    }
+      MatcherState.Continuation cont) {
+
+    Node token = seq[j];
+    int min = token.min;
+    int max = token.max;
 
     int k = i;
     int count = 0;
-    while (k < input.length() && count < max) {
-      if (specialToken) {
-        if (!TokenMatcher.peekEscapeMatch(input, k, pattern, j, tokenEndJ + 1)) break;
-      } else {
-        if (!TokenMatcher.charMatches(input.charAt(k), pattern.charAt(j))) break;
-      }
+    while (k < end && count < max) {
+      if (!TokenMatcher.charMatches(m.charAt(k), token)) break;
       k++;
       count++;
     }
@@ -47,97 +33,133 @@ static boolean handleSingleTokenRepeat(
 
     int maxSplit = k;
     int minSplit = i + min;
-    int nextPatternIndex = tokenEndJ + 2;
     for (int split = maxSplit; split >= minSplit; split--) {
-      if (MatcherState.matchPattern(
-          input,
-          split,
-          pattern,
-          nextPatternIndex,
-          patternEnd,
-          anchoredEnd,
-          new HashMap<>(groups))) {
+      if (m.matchPattern(split, end, seq, j + 1, anchoredEnd, cont)) {
         return true;
       }
     }
     return false;
   }
 
+  /**
+   * Greedy repetition of a group, one iteration at a time. Each iteration runs the body once,
+   * unbounded, and only collects the positions it can end at; those are tried in priority order
+   * on an explicit stack, and leaving the loop is tried only after every longer repetition from
+   * the same point failed. Iterations are therefore given back one by one instead of enumerating
+   * every way to split the input into n units, and a state (last iteration start, position) is
+   * never explored twice. The group captures its last iteration, and the capture is in place
+   * before the rest is tried, so a later backreference sees it.
+   */
   static boolean handleGroupRepeat(
-      String input,
+      MatcherState m,
       int i,
-      String pattern,
-      int openParen,
-      int closeParen,
-      int patternEnd,
+      int end,
+      Node[] seq,
+      int j,
       boolean anchoredEnd,
-      Map<Integer, String> groups,
-      int groupIndex,
-      int minReps,
-      int maxReps) {
-
-    int unitStart = openParen + 1;
-    int afterQuant = closeParen + 2;
-
-    boolean unitCanBeEmpty =
-        MatcherState.matchPattern("", 0, pattern, unitStart, closeParen, true, new HashMap<>());
-
-    int theoreticalMax =
-        unitCanBeEmpty
-            ? Math.min(maxReps, (input.length() - i) + 1)
-            : Math.min(maxReps, (input.length() - i));
-
-    for (int reps = theoreticalMax; reps >= minReps; reps--) {
-      for (int endPos :
-          consumeUnitExactlyN(input, i, pattern, unitStart, closeParen, reps, unitCanBeEmpty)) {
-        String captured = input.substring(i, endPos);
-        Map<Integer, String> newGroups = new HashMap<>(groups);
-        if (MatcherState.matchPattern(
-            input, endPos, pattern, afterQuant, patternEnd, anchoredEnd, newGroups)) {
-          newGroups.put(groupIndex, captured);
-          groups.clear();
-          groups.putAll(newGroups);
-          return true;
+      MatcherState.Continuation cont) {
+
+    Node.Group group = (Node.Group) seq[j];
+    boolean innerGroups = hasInnerGroups(group);
+    Repetition r = new Repetition();
+    r.push(m, group, i, -1, 0, end);
+
+    while (r.depth > 0) {
+      int f = r.depth - 1;
+      if (r.cursor[f] < r.limit[f]) {
+        int after = r.ends.values[r.cursor[f]++];
+        int pos = r.pos[f];
+        int count = r.count[f] + 1;
+        // an empty iteration past the minimum cannot make progress
+        if (after == pos && count > group.min) continue;
+        // positions only grow along a path, so states repeat only once some body was ambiguous
+        if (r.branched && count >= group.min && !r.visited.add(((long) pos << 32) | after)) {
+          continue;
         }
+        r.push(m, group, after, pos, count, end);
+        continue;
       }
+      int pos = r.pos[f];
+      int prev = r.prev[f];
+      int count = r.count[f];
+      r.pop();
+      if (count < group.min) continue;
+
+      int mark = m.mark();
+      // replay the last iteration on its own span so inner groups capture it
+      if (prev < 0
+          || !innerGroups
+          || m.matchAlternatives(prev, pos, group.alternatives, true, null)) {
+        if (prev >= 0) {
+          m.setSlot(2 * group.index, prev);
+          m.setSlot(2 * group.index + 1, pos);
+        }
+        if (m.matchPattern(pos, end, seq, j + 1, anchoredEnd, cont)) return true;
+      }
+      m.undo(mark);
     }
     return false;
   }
 
-  private static List<Integer> consumeUnitExactlyN(
-      String input,
-      int pos,
-      String pattern,
-      int unitStart,
-      int unitEnd,
-      int n,
-      boolean unitCanBeEmpty) {
-    List<Integer> results = new ArrayList<>();
-    if (n == 0) {
-      results.add(pos);
-      return results;
-    }
-    List<Integer> canedEnds = allUnitEnds(input, pos, pattern, unitStart, unitEnd);
-    Collections.sort(canedEnds, Collections.reverseOrder());
-    for (int end : canedEnds) {
-      if (!unitCanBeEmpty && end == pos) continue;
-      List<Integer> tails =
-          consumeUnitExactlyN(input, end, pattern, unitStart, unitEnd, n - 1, unitCanBeEmpty);
-      results.addAll(tails);
+  private static boolean hasInnerGroups(Node.Group group) {
+    for (Node[] alternative : group.alternatives) {
+      for (Node node : alternative) {
+        if (node instanceof Node.Group) return true;
+      }
     }
-    return results;
+    return false;
   }
 
-  private static List<Integer> allUnitEnds(
-      String input, int pos, String pattern, int unitStart, int unitEnd) {
-    List<Integer> ends = new ArrayList<>();
-    for (int len = input.length() - pos; len >= 0; len--) {
-      String candidate = input.substring(pos, pos + len);
-      if (MatcherState.matchPattern(
-          candidate, 0, pattern, unitStart, unitEnd, true, new HashMap<>())) {
-        ends.add(pos + len);
+  /** Explicit stack of iterations; frame f started at pos[f] after count[f] iterations. */
+  private static final class Repetition {
+    final Ends ends = new Ends();
+    final Set<Long> visited = new HashSet<>();
+    int[] pos = new int[8];
+    int[] prev = new int[8];
+    int[] count = new int[8];
+    int[] cursor = new int[8];
+    int[] limit = new int[8];
+    int depth;
+    boolean branched;
+
+    void push(MatcherState m, Node.Group group, int at, int last, int n, int end) {
+      if (depth == pos.length) {
+        int size = depth * 2;
+        pos = Arrays.copyOf(pos, size);
+        prev = Arrays.copyOf(prev, size);
+        count = Arrays.copyOf(count, size);
+        cursor = Arrays.copyOf(cursor, size);
+        limit = Arrays.copyOf(limit, size);
       }
+      pos[depth] = at;
+      prev[depth] = last;
+      count[depth] = n;
+      cursor[depth] = ends.size;
+      if (n < group.max) {
+        m.matchAlternatives(at, end, group.alternatives, false, ends);
+      }
+      limit[depth] = ends.size;
+      branched |= limit[depth] - cursor[depth] > 1;
+      depth++;
+    }
+
+    void pop() {
+      depth--;
+      // frames are stacked, so the popped frame's ends sit right after its parent's
+      ends.size = depth == 0 ? 0 : limit[depth - 1];
+    }
+  }
+
+  /** Continuation that records every end position of a body and then rejects it. */
+  private static final class Ends implements MatcherState.Continuation {
+    int[] values = new int[16];
+    int size;
+
+    @Override
+    public boolean resume(int i) {
+      if (size == values.length) values = Arrays.copyOf(values, size * 2);
+      values[size++] = i;
+      return false;
     }
-    return ends;
   }
 }
@@ -1,7 +1,7 @@
 package grep.engine;
 
-import java.util.HashMap;
 import java.util.Map;
+import jdk.jfr.FlightRecorder;
 
 /**
  * Public entry for the hand-rolled regex engine. No use of java.util.regex inside matching logic.
@@ -10,30 +10,56 @@ public final class RegexEngine {
   private RegexEngine() {}
 
   /**
-   * Public matcher: returns true if a pattern matches anywhere in input. The group map will be
-   * populated with capture group strings if matches occur.
+   * Parses pattern once into a reusable {@link CompiledPattern}. Callers matching many lines
+   * against the same pattern should compile it up front instead of calling matchPatternAnywhere
+   * per line.
    */
-  public static boolean matchPatternAnywhere(
-      String input, String pattern, Map<Integer, String> groups) {
-    // ensure a paren map for this pattern built (safe if already built)
-    PatternUtils.buildParenIndexMap(pattern);
+  public static CompiledPattern compile(String pattern) {
+    return parse(pattern, CompiledPattern.DEFAULT_STEP_BUDGET);
+  }
 
-    boolean anchoredStart = pattern.startsWith("^");
-    boolean anchoredEnd = pattern.endsWith("$");
-    int patternStart = anchoredStart ? 1 : 0;
-    int patternEnd = anchoredEnd ? pattern.length() - 1 : pattern.length();
+  /**
+   * Like {@link #compile(String)}, allowing the backtracker stepBudget steps per line instead of
+   * {@link CompiledPattern#DEFAULT_STEP_BUDGET}. Only patterns with backreferences backtrack.
+   */
+  public static CompiledPattern compile(String pattern, long stepBudget) {
+    if (stepBudget <= 0) throw new IllegalArgumentException("Step budget must be positive");
+    return parse(pattern, stepBudget);
+  }
 
-    if (anchoredStart) {
-      return MatcherState.matchPattern(
-          input, 0, pattern, patternStart, patternEnd, anchoredEnd, groups);
+  /**
+   * Parses pattern, recording a {@link PatternCompileEvent} while Flight Recorder is on. Loading an
+   * event class sets up Flight Recorder, which would add to the startup of every run, so events
+   * are only created once a recording has started.
+   */
+  private static CompiledPattern parse(String pattern, long stepBudget) {
+    if (!FlightRecorder.isInitialized()) return PatternParser.parse(pattern, stepBudget);
+    PatternCompileEvent event = new PatternCompileEvent();
+    event.begin();
+    CompiledPattern compiled = PatternParser.parse(pattern, stepBudget);
+    event.end();
+    if (event.shouldCommit()) {
+      event.pattern = pattern;
+      event.groups = compiled.groupCount();
+      event.backtracking = compiled.usesBacktracking();
+      event.stepBudget = stepBudget;
+      event.commit();
     }
+    return compiled;
+  }
 
-    for (int i = 0; i <= input.length(); i++) {
-      if (MatcherState.matchPattern(
-          input, i, pattern, patternStart, patternEnd, anchoredEnd, new HashMap<>(groups))) {
-        return true;
-      }
+  /**
+   * Public matcher: returns true if a pattern matches anywhere in input. The group map will be
+   * populated with capture group strings if matches occur.
+   */
+  public static boolean matchPatternAnywhere(
+      String input, String pattern, Map<Integer, String> groups) {
+    MatchResult result = compile(pattern).match(input);
+    if (result == null) return false;
+    for (int g = 1; g <= result.groupCount(); g++) {
+      String captured = result.group(g);
+      if (captured != null) groups.put(g, captured);
     }
-    return false;
+    return true;
   }
 }
@@ -0,0 +1,125 @@
+package grep.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where a match can begin. Pattern analysis finds the tokens a match can start with and the
+ * shortest text any match spans, so unanchored searches jump straight to offsets whose character
+ * can start a match and stop once fewer than minLength characters are left.
+ */
+final class StartSet {
+  // how the first character of a sequence is known, from best to worst
+  private static final int BOUNDED = 0;
+  private static final int NULLABLE = 1;
+  private static final int UNBOUNDED = 2;
+
+  /** No match spans fewer characters than this. */
+  final int minLength;
+
+  /** Tokens one of which matches the first character of every match; null if unknown. */
+  private final Node[] first;
+
+  /** ASCII part of the first-character set, precomputed from first. */
+  private final long low;
+
+  private final long high;
+
+  private StartSet(int minLength, Node[] first) {
+    this.minLength = minLength;
+    this.first = first;
+    long lo = 0;
+    long hi = 0;
+    if (first != null) {
+      for (char c = 0; c < 128; c++) {
+        if (!startsWith(first, c)) continue;
+        if (c < 64) {
+          lo |= 1L << c;
+        } else {
+          hi |= 1L << (c - 64);
+        }
+      }
+    }
+    this.low = lo;
+    this.high = hi;
+  }
+
+  static StartSet forPattern(Node[][] alternatives) {
+    List<Node> first = new ArrayList<>();
+    boolean known = collectFirst(alternatives, first) == BOUNDED;
+    return new StartSet(minLength(alternatives), known ? first.toArray(new Node[0]) : null);
+  }
+
+  /**
+   * Returns the first offset at or after from where a match may start, or -1 if there is none. The
+   * offset input.length() is a candidate only for patterns that can match empty text.
+   */
+  int next(CharSequence input, int from) {
+    int last = input.length() - minLength;
+    if (first == null) return from <= last ? from : -1;
+    for (int i = from; i <= last; i++) {
+      if (canStartWith(input.charAt(i))) return i;
+    }
+    return -1;
+  }
+
+  private boolean canStartWith(char c) {
+    if (c < 64) return (low & (1L << c)) != 0;
+    if (c < 128) return (high & (1L << (c - 64))) != 0;
+    return startsWith(first, c);
+  }
+
+  private static boolean startsWith(Node[] first, char c) {
+    for (Node token : first) {
+      if (TokenMatcher.charMatches(c, token)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Adds the tokens that can match the first character of the alternatives. Returns NULLABLE if
+   * one of them can match empty text, so whatever follows may supply the first character, and
+   * UNBOUNDED if one may start with a wildcard or a backreference.
+   */
+  private static int collectFirst(Node[][] alternatives, List<Node> first) {
+    int result = BOUNDED;
+    for (Node[] alternative : alternatives) {
+      result = Math.max(result, collectFirst(alternative, first));
+    }
+    return result;
+  }
+
+  private static int collectFirst(Node[] seq, List<Node> first) {
+    for (Node node : seq) {
+      if (node instanceof Node.AnyChar || node instanceof Node.BackRef) return UNBOUNDED;
+      boolean nullable = node.min == 0;
+      if (node instanceof Node.Group group) {
+        int body = collectFirst(group.alternatives, first);
+        if (body == UNBOUNDED) return UNBOUNDED;
+        nullable |= body == NULLABLE;
+      } else {
+        first.add(node);
+      }
+      if (!nullable) return BOUNDED;
+    }
+    return NULLABLE;
+  }
+
+  private static int minLength(Node[][] alternatives) {
+    int shortest = Integer.MAX_VALUE;
+    for (Node[] alternative : alternatives) {
+      int length = 0;
+      for (Node node : alternative) {
+        length += node.min * minLength(node);
+      }
+      shortest = Math.min(shortest, length);
+    }
+    return shortest;
+  }
+
+  private static int minLength(Node node) {
+    if (node instanceof Node.Group group) return minLength(group.alternatives);
+    // a backreference may refer to an empty or unset group
+    return node instanceof Node.BackRef ? 0 : 1;
+  }
+}
@@ -0,0 +1,23 @@
+package grep.engine;
+
+/**
+ * Thrown by {@link CompiledPattern#matches} and {@link CompiledPattern#match} when the backtracker
+ * ran out of its step budget on one line and no linear-time engine could decide the line instead.
+ * Whether that line matches is unknown; callers treat it as timed out and go on with the next.
+ */
+public final class StepBudgetExceededException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  private final long budget;
+
+  StepBudgetExceededException(long budget) {
+    // thrown to unwind deep recursion, so the stack trace is never wanted
+    super("Backtracking step budget of " + budget + " exceeded", null, false, false);
+    this.budget = budget;
+  }
+
+  /** The number of steps the line was allowed. */
+  public long budget() {
+    return budget;
+  }
+}
@@ -1,190 +1,100 @@
 package grep.engine;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.BiPredicate;
-
 /**
- * Token-level matching utilities: charMatches, peekEscapeMatch, handleEscape, handleCharacterClass.
+ * Token-level matching utilities: charMatches, handleEscape, handleCharacterClass.
  */
 final class TokenMatcher {
   private TokenMatcher() {}
 
-  static boolean charMatches(char textChar, char patternChar) {
-    return patternChar == '.' || textChar == patternChar;
-  }
-
-  static boolean peekEscapeMatch(
-      String input, int pos, String pattern, int j, int tokenTargetEndExclusive) {
-    if (pos >= input.length()) return false;
-    if (j + 1 >= tokenTargetEndExclusive) return false;
-    char first = pattern.charAt(j + 1);
-    char c = input.charAt(pos);
-    if (Character.isDigit(first)) {
-      return false;
+  /** Single-character test for literals, '.', \d, \w and bracket classes. */
+  static boolean charMatches(char c, Node token) {
+    if (token instanceof Node.Literal literal) {
+      return c == literal.ch;
+    }
+    if (token instanceof Node.AnyChar) {
+      return true;
     }
-    return switch (first) {
-      case 'd' -> Character.isDigit(c);
-      case 'w' -> (Character.isLetterOrDigit(c) || c == '_');
-      default -> c == first;
-    };
+    if (token instanceof Node.Escape escape) {
+      return escape.chars.contains(c);
+    }
+    if (token instanceof Node.CharSet set) {
+      return set.chars.contains(c);
+    }
+    // backreferences never match as a single character
+    return false;
   }
 
   static boolean handleEscape(
-      String input,
+      MatcherState m,
       int i,
-      String pattern,
+      int end,
+      Node[] seq,
       int j,
-      int patternEnd,
       boolean anchoredEnd,
-      Map<Integer, String> groups) {
-    if (j + 1 >= patternEnd) throw new RuntimeException("Dangling escape in pattern");
-    if (i > input.length()) return false;
+      MatcherState.Continuation cont) {
+    if (i > end) return false;
 
-    int k = j + 1;
-    if (Character.isDigit(pattern.charAt(k))) {
-      int groupNum = 0;
-      while (k < patternEnd && Character.isDigit(pattern.charAt(k))) {
-        groupNum = groupNum * 10 + (pattern.charAt(k) - '0');
-        k++;
-      }
-      String captured = groups.get(groupNum);
-      if (captured == null) return false;
-      if (i + captured.length() <= input.length() && input.startsWith(captured, i)) {
-        return MatcherState.matchPattern(
-            input, i + captured.length(), pattern, k, patternEnd, anchoredEnd, groups);
-      }
-      return false;
+    if (seq[j] instanceof Node.BackRef ref) {
+      if (!m.capturedTextAt(ref.group, i, end)) return false;
+      int len = m.slots[2 * ref.group + 1] - m.slots[2 * ref.group];
+      return m.matchPattern(i + len, end, seq, j + 1, anchoredEnd, cont);
     }
 
-    char escapeType = pattern.charAt(j + 1);
-    if (i >= input.length()) return false;
-    char c = input.charAt(i);
-
-    return switch (escapeType) {
-      case 'd' ->
-          Character.isDigit(c)
-              && MatcherState.matchPattern(
-                  input, i + 1, pattern, j + 2, patternEnd, anchoredEnd, groups);
-      case 'w' ->
-          (Character.isLetterOrDigit(c) || c == '_')
-              && MatcherState.matchPattern(
-                  input, i + 1, pattern, j + 2, patternEnd, anchoredEnd, groups);
-      default ->
-          c == escapeType
-              && MatcherState.matchPattern(
-                  input, i + 1, pattern, j + 2, patternEnd, anchoredEnd, groups);
-    };
+    if (i >= end) return false;
+    return charMatches(m.charAt(i), seq[j])
+        && m.matchPattern(i + 1, end, seq, j + 1, anchoredEnd, cont);
   }
 
   static boolean handleCharacterClass(
-      String input,
+      MatcherState m,
       int i,
-      String pattern,
+      int end,
+      Node[] seq,
       int j,
-      int patternEnd,
       boolean anchoredEnd,
-      Map<Integer, String> groups) {
-
-    int closingBracket = PatternUtils.findClosingBracket(pattern, j);
-    if (closingBracket == -1 || closingBracket >= patternEnd) {
-      throw new RuntimeException("Unclosed character class: " + pattern);
-    }
-
-    String charGroup = pattern.substring(j + 1, closingBracket);
-    boolean negate = false;
-    if (charGroup.startsWith("^")) {
-      negate = true;
-      charGroup = charGroup.substring(1);
-    }
-
-    char quant = '\0';
-    if (closingBracket + 1 < patternEnd) {
-      char maybe = pattern.charAt(closingBracket + 1);
-      if (maybe == '+' || maybe == '?' || maybe == '*') quant = maybe;
-    }
+      MatcherState.Continuation cont) {
 
-    BiPredicate<Character, String> matches =
-        (ch, grp) -> {
-          for (int idx = 0; idx < grp.length(); idx++) {
-            if (idx + 2 < grp.length() && grp.charAt(idx + 1) == '-') {
-              char start = grp.charAt(idx);
-              char end = grp.charAt(idx + 2);
-              if (ch >= start && ch <= end) return true;
-              idx += 2;
-            } else {
-              if (ch == grp.charAt(idx)) return true;
-            }
-          }
-          return false;
-        };
+    Node.CharSet set = (Node.CharSet) seq[j];
 
-    if (quant == '+') {
+    if (set.min == 1 && set.max == Integer.MAX_VALUE) {
       int k = i;
-      while (k < input.length()) {
-        boolean m = matches.test(input.charAt(k), charGroup);
-        if (negate) m = !m;
-        if (!m) break;
+      while (k < end) {
+        if (!charMatches(m.charAt(k), set)) break;
         k++;
       }
       if (k == i) return false;
       for (int split = k; split >= i + 1; split--) {
-        if (MatcherState.matchPattern(
-            input,
-            split,
-            pattern,
-            closingBracket + 2,
-            patternEnd,
-            anchoredEnd,
-            new HashMap<>(groups))) {
+        if (m.matchPattern(split, end, seq, j + 1, anchoredEnd, cont)) {
           return true;
         }
       }
       return false;
-    } else if (quant == '?') {
-      if (MatcherState.matchPattern(
-          input, i, pattern, closingBracket + 2, patternEnd, anchoredEnd, new HashMap<>(groups))) {
+    } else if (set.max == 1 && set.min == 0) {
+      if (m.matchPattern(i, end, seq, j + 1, anchoredEnd, cont)) {
         return true;
       }
 
-      if (i >= input.length()) return false;
-
-      boolean m = matches.test(input.charAt(i), charGroup);
-
-      if (negate) m = !m;
+      if (i >= end) return false;
 
-      if (!m) return false;
+      if (!charMatches(m.charAt(i), set)) return false;
 
-      return MatcherState.matchPattern(
-          input, i + 1, pattern, closingBracket + 2, patternEnd, anchoredEnd, groups);
-    } else if (quant == '*') {
+      return m.matchPattern(i + 1, end, seq, j + 1, anchoredEnd, cont);
+    } else if (set.min == 0) {
       int k = i;
-      while (k < input.length()) {
-        boolean m = matches.test(input.charAt(k), charGroup);
-        if (negate) m = !m;
-        if (!m) break;
+      while (k < end) {
+        if (!charMatches(m.charAt(k), set)) break;
         k++;
       }
       for (int split = k; split >= i; split--) {
-        if (MatcherState.matchPattern(
-            input,
-            split,
-            pattern,
-            closingBracket + 2,
-            patternEnd,
-            anchoredEnd,
-            new HashMap<>(groups))) {
+        if (m.matchPattern(split, end, seq, j + 1, anchoredEnd, cont)) {
           return true;
         }
       }
       return false;
     } else {
-      if (i >= input.length()) return false;
-      boolean m = matches.test(input.charAt(i), charGroup);
-      if (negate) m = !m;
-      if (!m) return false;
-      return MatcherState.matchPattern(
-          input, i + 1, pattern, closingBracket + 1, patternEnd, anchoredEnd, groups);
+      if (i >= end) return false;
+      if (!charMatches(m.charAt(i), set)) return false;
+      return m.matchPattern(i + 1, end, seq, j + 1, anchoredEnd, cont);
     }
   }
 }
@@ -0,0 +1,49 @@
+package grep.search;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only CharSequence view of one line inside a byte buffer. Each byte is one char (ISO-8859-1),
+ * which is exact for ASCII lines and how binary files are matched, so the matcher runs on the
+ * file bytes directly and text is only copied out for lines that are printed. The view is
+ * repointed for every line and must not be kept.
+ */
+final class ByteLine implements CharSequence {
+    private ByteBuffer buf;
+    private int offset;
+    private int length;
+
+    void set(ByteBuffer buf, int offset, int length) {
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buf.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /** Copies len bytes starting at index from into dst at off. */
+    void copyTo(int from, byte[] dst, int off, int len) {
+        buf.get(offset + from, dst, off, len);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        buf.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
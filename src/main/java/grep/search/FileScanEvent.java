@@ -0,0 +1,41 @@
+package grep.search;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one search of a file, a part of a split file, or standard input, timed
+ * from opening the input to its last line, matching lines written included. Not committed when
+ * reading fails.
+ */
+@Name("grep.FileScan")
+@Label("File Scan")
+@Category("grep")
+@Description("One file, part of a file, or standard input searched line by line")
+@StackTrace(false)
+final class FileScanEvent extends jdk.jfr.Event {
+    @Label("Path")
+    String path;
+
+    @Label("Offset")
+    @Description("First byte searched; above 0 only for the later parts of a split file")
+    @DataAmount
+    long offset;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Matches")
+    long matches;
+
+    @Label("Binary")
+    boolean binary;
+}
@@ -0,0 +1,103 @@
+package grep.search;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Lists the files searched under a directory for -r. The --include, --exclude and --exclude-dir
+ * globs are compiled once and matched against file and directory names, like GNU grep. An excluded
+ * directory is skipped before it is opened, so nothing below it is listed or read. With {@link
+ * #stats} set, files seen and filtered out are counted and the walk's own time is charged to the
+ * walk phase.
+ */
+final class FileWalker {
+    private final PathMatcher[] includes;
+    private final PathMatcher[] excludes;
+    private final PathMatcher[] excludeDirs;
+    private SearchStats.Counters stats;
+
+    FileWalker(List<String> includes, List<String> excludes, List<String> excludeDirs) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+        this.excludeDirs = compile(excludeDirs);
+    }
+
+    /** Counts every following walk into stats, which must belong to the walking thread. */
+    void stats(SearchStats.Counters stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Calls onFile with every regular file below start that passes the filters, in walk order,
+     * until it returns false.
+     */
+    void walk(Path start, Predicate<Path> onFile) throws IOException {
+        SearchStats.Counters stats = this.stats;
+        int left = stats == null ? SearchStats.IDLE : stats.enter(SearchStats.WALK);
+        try {
+            walkTree(start, onFile, stats);
+        } finally {
+            if (stats != null) stats.enter(left);
+        }
+    }
+
+    private void walkTree(Path start, Predicate<Path> onFile, SearchStats.Counters stats)
+            throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // the start directory was named by the user and is always searched
+                if (!dir.equals(start) && matchesAny(excludeDirs, dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // links are not followed into directories, but linked files are searched
+                boolean regular = attrs.isRegularFile()
+                        || (attrs.isSymbolicLink() && Files.isRegularFile(file));
+                if (!regular) return FileVisitResult.CONTINUE;
+                if (stats != null) stats.filesWalked++;
+                if (!accepts(file)) {
+                    if (stats != null) stats.filesSkipped++;
+                    return FileVisitResult.CONTINUE;
+                }
+                return onFile.test(file) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+            }
+        });
+    }
+
+    boolean accepts(Path file) {
+        if (includes.length > 0 && !matchesAny(includes, file)) return false;
+        return !matchesAny(excludes, file);
+    }
+
+    private static boolean matchesAny(PathMatcher[] matchers, Path path) {
+        Path name = path.getFileName();
+        if (name == null) return false;
+        for (PathMatcher m : matchers) {
+            if (m.matches(name)) return true;
+        }
+        return false;
+    }
+
+    private static PathMatcher[] compile(List<String> globs) {
+        FileSystem fs = FileSystems.getDefault();
+        PathMatcher[] matchers = new PathMatcher[globs.size()];
+        for (int k = 0; k < matchers.length; k++) {
+            matchers[k] = fs.getPathMatcher("glob:" + globs.get(k));
+        }
+        return matchers;
+    }
+}
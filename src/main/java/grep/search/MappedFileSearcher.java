@@ -0,0 +1,383 @@
+package grep.search;
+
+import grep.engine.CompiledPattern;
+import grep.engine.StepBudgetExceededException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Line search over the raw bytes of a file. Small files are read into one reused buffer, larger
+ * ones are memory-mapped window by window, and lines are split on the bytes themselves. Streams
+ * such as standard input are read block by block into the same buffer; a line cut off at the end
+ * of a block is moved to the front and completed by the next read.
+ * Pure-ASCII lines are matched through a {@link ByteLine} view without decoding; any other line is
+ * decoded as UTF-8 first. Matching ASCII lines are handed on as the view itself, which is only
+ * valid during the callback.
+ *
+ * <p>A file is binary when its first block contains a NUL byte, or from the first line that is
+ * not valid UTF-8 on. Lines of a binary file are matched as raw bytes, none of them is reported,
+ * and the search stops at the first match; {@link #binary()} tells the caller to print a "Binary
+ * file ... matches" note instead. When no lines are wanted, as for -c, binary files are searched
+ * to the end like text. A search also stops once {@link #maxMatches} lines have matched.
+ *
+ * <p>A line on which the pattern runs out of its backtracking step budget is handed to {@link
+ * #onTimeout} and does not match.
+ *
+ * <p>With {@link #stats} set, each search counts its bytes, lines and matches there and charges
+ * its time to the read and match phases. While Flight Recorder records {@link SlowLineEvent}, a
+ * search that starts then times the match of every line; otherwise lines are not timed.
+ *
+ * <p>Line ends follow BufferedReader.readLine: \n, \r or \r\n. Instances reuse their buffers and
+ * are not thread-safe.
+ */
+final class MappedFileSearcher {
+    /** Files up to this size are read instead of mapped, since mapping has a fixed cost. */
+    static final int MAP_THRESHOLD = 256 * 1024;
+
+    /** Bytes mapped at a time; grown when a single line does not fit. */
+    static final int DEFAULT_WINDOW = 1 << 28;
+
+    /** Bytes sniffed for NUL at the start of a file. */
+    static final int SNIFF_BYTES = 8 * 1024;
+
+    private final int window;
+    private final ByteLine line = new ByteLine();
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private ByteBuffer small = ByteBuffer.allocate(MAP_THRESHOLD);
+    private long maxMatches = Long.MAX_VALUE;
+    private boolean linesWanted = true;
+    private Consumer<CharSequence> onTimeout = line -> { };
+    private String name = "";
+    private SearchStats.Counters stats;
+    // bytes and lines scanned in one search, added to stats when it ends
+    private long bytes;
+    private long lines;
+    private long count;
+    private boolean binary;
+    // whether the current search records slow lines
+    private boolean timeLines;
+
+    MappedFileSearcher() {
+        this(DEFAULT_WINDOW);
+    }
+
+    MappedFileSearcher(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Calls onMatch with every matching line in file order; returns true if there was one. For a
+     * binary file onMatch is not called, see {@link #binary()}.
+     */
+    boolean search(Path file, CompiledPattern compiled, Consumer<CharSequence> onMatch)
+            throws IOException {
+        count = 0;
+        binary = false;
+        if (stopped()) return false;
+        int left = begin();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= MAP_THRESHOLD) {
+                searchSmall(channel, compiled, onMatch);
+                return count > 0;
+            }
+            binary = startsBinary(channel);
+            searchMapped(channel, 0, size, compiled, onMatch);
+            return count > 0;
+        } finally {
+            done(left);
+        }
+    }
+
+    /**
+     * Searches bytes [from, to) of an open file, which must start and end on line boundaries.
+     * Used for the parts of a file searched in parallel; binary says whether the part is searched
+     * as binary from its first line, as {@link #startsBinary} or an earlier part decided.
+     */
+    boolean search(FileChannel channel, long from, long to, boolean binary,
+            CompiledPattern compiled, Consumer<CharSequence> onMatch) throws IOException {
+        this.count = 0;
+        this.binary = binary;
+        int left = begin();
+        try {
+            searchMapped(channel, from, to, compiled, onMatch);
+        } finally {
+            done(left);
+        }
+        return count > 0;
+    }
+
+    /** True if the first bytes of the file contain a NUL. */
+    static boolean startsBinary(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(SNIFF_BYTES);
+        int n;
+        do {
+            n = channel.read(head, head.position());
+        } while (n > 0 && head.hasRemaining());
+        return hasNul(head, 0, head.position());
+    }
+
+    private void searchMapped(FileChannel channel, long from, long to, CompiledPattern compiled,
+            Consumer<CharSequence> onMatch) throws IOException {
+        long pos = from;
+        int span = window;
+        while (pos < to) {
+            int len = (int) Math.min(span, to - pos);
+            boolean last = pos + len == to;
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            int consumed = scan(buf, len, last, compiled, onMatch);
+            if (stopped()) break;
+            if (consumed == 0 && !last) {
+                // one line is longer than the window
+                if (span == Integer.MAX_VALUE) throw new IOException("Line too long");
+                span = (int) Math.min(2L * span, Integer.MAX_VALUE);
+                continue;
+            }
+            pos += consumed;
+            if (last) break;
+        }
+    }
+
+    private void searchSmall(FileChannel channel, CompiledPattern compiled,
+            Consumer<CharSequence> onMatch) throws IOException {
+        small.clear();
+        // the size may change while reading; read until end of stream
+        while (channel.read(small) >= 0) {
+            if (!small.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(small.capacity() * 2);
+                small.flip();
+                bigger.put(small);
+                small = bigger;
+            }
+        }
+        binary = hasNul(small, 0, Math.min(small.position(), SNIFF_BYTES));
+        scan(small, small.position(), true, compiled, onMatch);
+    }
+
+    /**
+     * Like {@link #search(Path, CompiledPattern, Consumer)} for a stream read to its end. Each
+     * block is scanned as soon as it arrives, so output keeps up with a slow pipe.
+     */
+    boolean search(InputStream in, CompiledPattern compiled, Consumer<CharSequence> onMatch)
+            throws IOException {
+        count = 0;
+        binary = false;
+        if (stopped()) return false;
+        int left = begin();
+        try {
+            return searchStream(in, compiled, onMatch);
+        } finally {
+            done(left);
+        }
+    }
+
+    private boolean searchStream(InputStream in, CompiledPattern compiled,
+            Consumer<CharSequence> onMatch) throws IOException {
+        ByteBuffer buf = small;
+        int filled = 0;
+        long seen = 0;
+        while (true) {
+            if (filled == buf.capacity()) {
+                // one line is longer than the buffer
+                ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+                bigger.put(0, buf, 0, filled);
+                buf = small = bigger;
+            }
+            int n = in.read(buf.array(), filled, buf.capacity() - filled);
+            boolean last = n < 0;
+            if (n > 0) {
+                if (seen < SNIFF_BYTES && !binary) {
+                    binary = hasNul(buf, filled, filled + (int) Math.min(n, SNIFF_BYTES - seen));
+                }
+                filled += n;
+                seen += n;
+            }
+            int consumed = scan(buf, filled, last, compiled, onMatch);
+            if (last || stopped()) return count > 0;
+            System.arraycopy(buf.array(), consumed, buf.array(), 0, filled - consumed);
+            filled -= consumed;
+        }
+    }
+
+    /**
+     * Limits every search to its first max matching lines. Reading ends right after the last one,
+     * and the file is closed before search returns.
+     */
+    void maxMatches(long max) {
+        this.maxMatches = max;
+    }
+
+    /**
+     * With false, onMatch is only used to count and binary files are searched to the end like
+     * text; for output modes that print names or counts instead of lines.
+     */
+    void linesWanted(boolean wanted) {
+        this.linesWanted = wanted;
+    }
+
+    /**
+     * Called with every line that could not be decided within the step budget, while the line is
+     * valid as for onMatch.
+     */
+    void onTimeout(Consumer<CharSequence> listener) {
+        this.onTimeout = listener;
+    }
+
+    /** Names the input of the following searches in their events. */
+    void name(String name) {
+        this.name = name;
+    }
+
+    /** Counts every following search into stats; null to stop counting. */
+    void stats(SearchStats.Counters stats) {
+        this.stats = stats;
+    }
+
+    /** Number of matching lines in the last search, up to where it stopped. */
+    long matchCount() {
+        return count;
+    }
+
+    /** Number of bytes the last search went through, up to where it stopped. */
+    long bytesScanned() {
+        return bytes;
+    }
+
+    /** Number of lines the last search went through, up to where it stopped. */
+    long linesScanned() {
+        return lines;
+    }
+
+    /** True if the last search ended before the end of its input, see {@link #maxMatches}. */
+    boolean stopped() {
+        return count >= maxMatches || (binary && linesWanted && count > 0);
+    }
+
+    /** True if the last searched file was binary; its matches were then not reported. */
+    boolean binary() {
+        return binary;
+    }
+
+    private static boolean hasNul(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == 0) return true;
+        }
+        return false;
+    }
+
+    /** Starts a search, in the read phase; returns the phase to go back to when it is done. */
+    private int begin() {
+        bytes = 0;
+        lines = 0;
+        timeLines = FlightRecorder.isInitialized() && new SlowLineEvent().isEnabled();
+        return stats == null ? SearchStats.IDLE : stats.enter(SearchStats.READ);
+    }
+
+    private void done(int left) {
+        if (stats == null) return;
+        stats.bytesRead += bytes;
+        stats.linesScanned += lines;
+        stats.matches += count;
+        stats.enter(left);
+    }
+
+    private boolean matches(CompiledPattern compiled, CharSequence text) {
+        if (timeLines) return timedMatches(compiled, text);
+        try {
+            return compiled.matches(text);
+        } catch (StepBudgetExceededException e) {
+            onTimeout.accept(text);
+            return false;
+        }
+    }
+
+    /** Like {@link #matches}, recording a {@link SlowLineEvent} if the line took long enough. */
+    private boolean timedMatches(CompiledPattern compiled, CharSequence text) {
+        SlowLineEvent event = new SlowLineEvent();
+        event.begin();
+        boolean matched = false;
+        boolean timedOut = false;
+        try {
+            matched = compiled.matches(text);
+        } catch (StepBudgetExceededException e) {
+            timedOut = true;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = name;
+            event.length = text.length();
+            event.line = text.length() > SlowLineEvent.EXCERPT
+                    ? text.subSequence(0, SlowLineEvent.EXCERPT).toString()
+                    : text.toString();
+            event.matched = matched;
+            event.timedOut = timedOut;
+            event.commit();
+        }
+        if (timedOut) onTimeout.accept(text);
+        return matched;
+    }
+
+    /**
+     * Matches every complete line in buf[0, len). A line running into the end of a window that is
+     * not the last one is left for the next window. Returns the number of bytes consumed.
+     */
+    private int scan(ByteBuffer buf, int len, boolean last, CompiledPattern compiled,
+            Consumer<CharSequence> onMatch) {
+        int left = stats == null ? SearchStats.IDLE : stats.enter(SearchStats.MATCH);
+        int start = 0;
+        int scanned = 0;
+        try {
+            while (start < len && !stopped()) {
+                int i = start;
+                int bits = 0;
+                byte b = 0;
+                while (i < len) {
+                    b = buf.get(i);
+                    if (b == '\n' || b == '\r') break;
+                    bits |= b;
+                    i++;
+                }
+                if (!last && (i == len || (b == '\r' && i == len - 1))) break;
+                scanned++;
+
+                CharBuffer text = null;
+                if (bits < 0 && !binary) {
+                    try {
+                        text = decoder.decode(buf.slice(start, i - start));
+                    } catch (CharacterCodingException e) {
+                        binary = true;
+                    }
+                }
+                if (text == null) {
+                    line.set(buf, start, i - start);
+                    if (matches(compiled, line)) {
+                        count++;
+                        if (!binary || !linesWanted) onMatch.accept(line);
+                    }
+                } else if (matches(compiled, text)) {
+                    count++;
+                    onMatch.accept(text);
+                }
+
+                if (i < len && b == '\r' && i + 1 < len && buf.get(i + 1) == '\n') i++;
+                start = i + 1;
+            }
+        } finally {
+            // also when output failed, so the statistics cover the lines searched until then
+            lines += scanned;
+            bytes += Math.min(start, len);
+            if (stats != null) stats.enter(left);
+        }
+        return Math.min(start, len);
+    }
+}
@@ -0,0 +1,65 @@
+package grep.search;
+
+import grep.cli.CommandOptions;
+
+/**
+ * What a search prints for each file: its matching lines (the default), only its name (-l), its
+ * number of matching lines (-c), or nothing at all (-q). The modes that do not print lines stop
+ * reading a file as early as their answer is known.
+ */
+enum OutputMode {
+    LINES,
+    FILES_WITH_MATCHES,
+    COUNT,
+    QUIET;
+
+    /** -q wins over -l, and -l over -c, as in GNU grep. */
+    static OutputMode of(CommandOptions opts) {
+        if (opts.quiet) return QUIET;
+        if (opts.filesWithMatches) return FILES_WITH_MATCHES;
+        if (opts.count) return COUNT;
+        return LINES;
+    }
+
+    boolean printsLines() {
+        return this == LINES;
+    }
+
+    /** True if files without a match get a line too, as their count of 0 with -c. */
+    boolean reportsEveryFile() {
+        return this == COUNT;
+    }
+
+    /** True if the whole search can end once any line matched. */
+    boolean stopsAtFirstMatch() {
+        return this == QUIET;
+    }
+
+    /** Sets up a searcher for this mode, stopping each file after at most maxCount matches. */
+    void configure(MappedFileSearcher searcher, long maxCount) {
+        searcher.linesWanted(printsLines());
+        searcher.maxMatches(this == FILES_WITH_MATCHES || this == QUIET
+                ? Math.min(1, maxCount)
+                : maxCount);
+    }
+
+    /**
+     * Writes what follows the lines of one searched file: the note for a binary file, its name or
+     * its count. The prefix is the one its lines would get.
+     */
+    void finish(OutputSink out, String name, byte[] prefix, boolean matched, boolean binary,
+            long count) {
+        switch (this) {
+            case LINES -> {
+                if (matched && binary) {
+                    out.line(OutputSink.NO_PREFIX, "Binary file " + name + " matches");
+                }
+            }
+            case FILES_WITH_MATCHES -> {
+                if (matched) out.line(OutputSink.NO_PREFIX, name);
+            }
+            case COUNT -> out.line(prefix, Long.toString(count));
+            case QUIET -> { }
+        }
+    }
+}
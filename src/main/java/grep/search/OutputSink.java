@@ -0,0 +1,159 @@
+package grep.search;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Buffered writer for matching lines. The prefix and line bytes are copied straight into one
+ * reused buffer, which reaches the underlying stream in large writes instead of one synchronized,
+ * usually flushing println per match. ASCII lines found by {@link MappedFileSearcher} are copied
+ * from the file bytes without becoming Strings. When stdout is a terminal every line is flushed,
+ * so results still show up as they are found; otherwise callers waiting for more input use {@link
+ * #flushPending} first.
+ *
+ * <p>Callers must {@link #flush()} before exiting. Not thread-safe. A PrintStream such as
+ * System.out hides write errors, so its error flag is checked after every write; once the reader
+ * is gone, for example after {@code | head}, writing throws {@link ClosedException}. With {@link
+ * #stats} set, the bytes written and the time spent writing them are counted there.
+ */
+final class OutputSink {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final byte[] NO_PREFIX = new byte[0];
+    private static final byte[] NEWLINE =
+            System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final boolean flushEachLine;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int count;
+    private SearchStats.Counters stats;
+
+    OutputSink(OutputStream out, boolean flushEachLine) {
+        this.out = out;
+        this.flushEachLine = flushEachLine;
+    }
+
+    /** Sink for System.out as it is set right now. */
+    static OutputSink stdout() {
+        return new OutputSink(System.out, stdoutIsTerminal());
+    }
+
+    /**
+     * True if file descriptor 1 is a terminal, whatever stdin is. Told from /proc where there is
+     * one; elsewhere System.console(), which needs stdin to be a terminal too, is the best guess.
+     */
+    private static boolean stdoutIsTerminal() {
+        try {
+            String target = Files.readSymbolicLink(Path.of("/proc/self/fd/1")).toString();
+            return target.startsWith("/dev/pts/") || target.startsWith("/dev/tty");
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return System.console() != null;
+        }
+    }
+
+    /** Counts every following write into stats, which must belong to the writing thread. */
+    void stats(SearchStats.Counters stats) {
+        this.stats = stats;
+    }
+
+    static byte[] prefix(String name) {
+        return (name + ":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Writes prefix, the line and a line separator; text is only read during this call. */
+    void line(byte[] prefix, CharSequence text) {
+        bytes(prefix, 0, prefix.length);
+        if (text instanceof ByteLine raw) {
+            for (int from = 0; from < raw.length(); ) {
+                if (count == buf.length) drain();
+                int n = Math.min(raw.length() - from, buf.length - count);
+                raw.copyTo(from, buf, count, n);
+                count += n;
+                from += n;
+            }
+        } else if (isAscii(text)) {
+            for (int k = 0; k < text.length(); k++) {
+                if (count == buf.length) drain();
+                buf[count++] = (byte) text.charAt(k);
+            }
+        } else {
+            byte[] encoded = text.toString().getBytes(StandardCharsets.UTF_8);
+            bytes(encoded, 0, encoded.length);
+        }
+        bytes(NEWLINE, 0, NEWLINE.length);
+        if (flushEachLine) flush();
+    }
+
+    /** Writes out everything buffered so far. */
+    void flush() {
+        drain();
+        int left = stats == null ? SearchStats.IDLE : stats.enter(SearchStats.WRITE);
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (stats != null) stats.enter(left);
+        }
+        checkClosed();
+    }
+
+    /** Flushes if anything is buffered; cheap enough to call before every blocking read. */
+    void flushPending() {
+        if (count > 0) flush();
+    }
+
+    /** Writes already encoded output, such as a whole file's buffered matches. */
+    void bytes(byte[] bytes, int off, int len) {
+        while (len > 0) {
+            if (count == buf.length) drain();
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(bytes, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void drain() {
+        if (count == 0) return;
+        int left = stats == null ? SearchStats.IDLE : stats.enter(SearchStats.WRITE);
+        try {
+            out.write(buf, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (stats != null) {
+                stats.outputBytes += count;
+                stats.enter(left);
+            }
+        }
+        count = 0;
+        checkClosed();
+    }
+
+    private void checkClosed() {
+        if (out instanceof PrintStream ps && ps.checkError()) throw new ClosedException();
+    }
+
+    /** Output can no longer be written, usually because the reading end of a pipe closed. */
+    static final class ClosedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ClosedException() {
+            super("Output closed");
+        }
+    }
+
+    private static boolean isAscii(CharSequence text) {
+        for (int k = 0; k < text.length(); k++) {
+            if (text.charAt(k) >= 0x80) return false;
+        }
+        return true;
+    }
+}
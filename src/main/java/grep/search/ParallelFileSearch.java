@@ -0,0 +1,342 @@
+package grep.search;
+
+import grep.engine.CompiledPattern;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches files on a work-stealing pool while keeping the output of a sequential search. Each
+ * worker buffers the whole output of one file; results are written in the order the files were
+ * submitted, as soon as every earlier file is done. At most a few files per thread are in flight,
+ * so memory stays bounded on large trees.
+ *
+ * <p>A file of at least {@link #SPLIT_THRESHOLD} bytes is cut into parts that end on line
+ * boundaries. The parts are queued like files, so one huge file is searched by every thread and
+ * still printed in file order. Files searched with a -m limit are not split, since their parts
+ * could not know how many matches came before them. Whether the file is binary is decided from its
+ * first block before splitting; a part that turns binary on an invalid line makes the following
+ * parts binary too. In the modes that print a name or count per file, that line is written after
+ * the file's last part; with -q nothing more is submitted or written once a file matched.
+ *
+ * <p>With stats, each pool thread counts into its own counters, and time the submitting thread
+ * spends waiting for a result is charged to no phase.
+ */
+final class ParallelFileSearch implements AutoCloseable {
+    private static final int PENDING_PER_THREAD = 4;
+
+    /** Files at least this large are searched in parts. */
+    static final long SPLIT_THRESHOLD = 64L << 20;
+
+    /** Approximate size of a part; each one is extended to the end of its last line. */
+    static final long PART_SIZE = 8L << 20;
+
+    private final int threads;
+    private final CompiledPattern compiled;
+    private final OutputMode mode;
+    private final long maxCount;
+    private final OutputSink out;
+    private final SearchStats.Counters stats; // of the submitting thread, or null
+    private final ExecutorService pool;
+    private final int maxPending;
+    private final ArrayDeque<Future<FileResult>> pending = new ArrayDeque<>();
+    // each pool thread reuses one searcher and one output buffer
+    private final ThreadLocal<Worker> workers;
+    private boolean anyMatch;
+    // set with -q once a match was written
+    private boolean quit;
+    // state of the split file being emitted
+    private boolean partsDone;
+    private boolean partsMatched;
+    private boolean partsBinary;
+    private long partsCount;
+
+    ParallelFileSearch(int threads, CompiledPattern compiled, OutputMode mode, long maxCount,
+            OutputSink out, SearchStats stats) {
+        this.threads = threads;
+        this.maxCount = maxCount;
+        this.compiled = compiled;
+        this.mode = mode;
+        this.workers = ThreadLocal.withInitial(() -> new Worker(mode, maxCount, stats));
+        this.out = out;
+        this.stats = stats == null ? null : stats.counters();
+        this.pool = Executors.newWorkStealingPool(threads);
+        this.maxPending = threads * PENDING_PER_THREAD;
+    }
+
+    boolean submit(Path file) {
+        return submit(file, OutputSink.prefix(file.toString()));
+    }
+
+    /**
+     * Queues a file whose matching lines are printed after prefix. Returns false when the search
+     * is over and no more files need to be submitted.
+     */
+    boolean submit(Path file, byte[] prefix) {
+        if (quit) return false;
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            size = 0; // reported when the file is searched
+        }
+        if (splits(threads, size, maxCount)) {
+            submitParts(file, prefix, size);
+        } else {
+            enqueue(() -> workers.get().search(file, compiled, prefix));
+        }
+        return !quit;
+    }
+
+    /**
+     * Queues the summary of a file that is known not to match without reading it, such as its
+     * count of 0, in order with the files around it. Returns false like {@link #submit}.
+     */
+    boolean skip(Path file) {
+        if (quit) return false;
+        enqueue(() -> workers.get().skipped(file));
+        return !quit;
+    }
+
+    /** True if a file of this size is searched in parts. */
+    static boolean splits(int threads, long size, long maxCount) {
+        return threads > 1 && size >= SPLIT_THRESHOLD && maxCount == Long.MAX_VALUE;
+    }
+
+    /** Writes the remaining results; returns true if any file since the last call matched. */
+    boolean finish() {
+        while (!pending.isEmpty()) emit(pending.removeFirst());
+        boolean found = anyMatch;
+        anyMatch = false;
+        return found;
+    }
+
+    private void submitParts(Path file, byte[] prefix, long size) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            boolean binary = MappedFileSearcher.startsBinary(channel);
+            long from = 0;
+            while (from < size && !quit) {
+                long to = lineEndAfter(channel, Math.min(from + PART_SIZE, size), size);
+                Part part = new Part(from, to, from == 0, to == size, binary, prefix);
+                enqueue(() -> workers.get().search(file, part, compiled));
+                from = to;
+            }
+        } catch (IOException e) {
+            enqueue(() -> new FileResult(file, false, new byte[0], e, 0, false, false, null));
+        }
+    }
+
+    private void enqueue(Callable<FileResult> task) {
+        if (pending.size() >= maxPending) emit(pending.removeFirst());
+        pending.addLast(pool.submit(task));
+    }
+
+    /**
+     * Returns the first offset at or after pos that starts a line, or size. A line ends after \n,
+     * or after a \r that is not followed by \n. A file that turns out shorter than size, because
+     * it shrank since it was measured, ends where reading stops; the result is never below pos.
+     */
+    private static long lineEndAfter(FileChannel channel, long pos, long size)
+            throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        // the byte before pos may already end a line
+        long at = pos - 1;
+        while (at < size) {
+            probe.clear();
+            int n;
+            do {
+                n = channel.read(probe, at + probe.position());
+            } while (n > 0 && probe.hasRemaining());
+            int len = probe.position();
+            // a short read means the end of the file, even if that is before size
+            boolean end = at + len >= size || probe.hasRemaining();
+            // keep the last byte as lookahead for \r\n unless the file ends there
+            int limit = end ? len : len - 1;
+            for (int j = 0; j < limit; j++) {
+                byte b = probe.get(j);
+                if (b == '\n' || (b == '\r' && (j + 1 == len || probe.get(j + 1) != '\n'))) {
+                    return Math.max(pos, at + j + 1);
+                }
+            }
+            if (end) break;
+            at += limit;
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private void emit(Future<FileResult> future) {
+        FileResult result;
+        int left = stats == null ? SearchStats.IDLE : stats.enter(SearchStats.IDLE);
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (stats != null) stats.enter(left);
+        }
+        if (quit) return;
+        Part part = result.part;
+        if (part != null) {
+            if (part.first) {
+                partsDone = false;
+                partsMatched = false;
+                partsBinary = false;
+                partsCount = 0;
+            }
+            if (partsDone) return;
+            if (partsBinary && !part.binary && mode.printsLines()) {
+                // searched as text, but an earlier part turned binary
+                result = workers.get().search(result.file, part.asBinary(), compiled);
+            }
+        }
+        out.bytes(result.output, 0, result.output.length);
+        if (result.error != null) {
+            SearchExecutor.fail(out,
+                    "Error reading file " + result.file + ": " + result.error.getMessage());
+        }
+        if (result.matched) anyMatch = true;
+        if (part != null) {
+            partsMatched |= result.matched;
+            partsBinary |= result.binary;
+            partsCount += result.count;
+            partsDone = result.stopped;
+            if (partsDone || part.last) {
+                mode.finish(out, result.file.toString(), part.prefix, partsMatched, partsBinary,
+                        partsCount);
+            }
+        }
+        if (anyMatch && mode.stopsAtFirstMatch()) quit = true;
+    }
+
+    private static final class Worker {
+        final MappedFileSearcher searcher = new MappedFileSearcher();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final OutputSink sink = new OutputSink(buffer, false);
+        final OutputMode mode;
+
+        /** Created on the pool thread that uses it, which counts into its own stats. */
+        Worker(OutputMode mode, long maxCount, SearchStats stats) {
+            this.mode = mode;
+            mode.configure(searcher, maxCount);
+            if (stats != null) searcher.stats(stats.counters());
+        }
+
+        FileResult search(Path file, CompiledPattern compiled, byte[] prefix) {
+            boolean matched = false;
+            IOException error = null;
+            try {
+                matched = SearchExecutor.searchFile(file, file.toString(), prefix, compiled,
+                        searcher, mode, sink);
+            } catch (IOException e) {
+                error = e;
+            }
+            return result(file, matched, error, null);
+        }
+
+        /** Searches one part; the per-file line is left to {@link #emit}, which sees all parts. */
+        FileResult search(Path file, Part part, CompiledPattern compiled) {
+            boolean matched = false;
+            IOException error = null;
+            searcher.onTimeout(SearchExecutor.timeoutReporter(file.toString()));
+            searcher.name(file.toString());
+            FileScanEvent event = SearchExecutor.beginScan();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                matched = searcher.search(channel, part.from, part.to, part.binary, compiled,
+                        SearchExecutor.lineWriter(mode, part.prefix, sink));
+                SearchExecutor.scanned(event, file.toString(), part.from, searcher);
+            } catch (IOException e) {
+                error = e;
+            }
+            return result(file, matched, error, part);
+        }
+
+        /** What a search of file would have written if no line matched. */
+        FileResult skipped(Path file) {
+            String name = file.toString();
+            mode.finish(sink, name, OutputSink.prefix(name), false, false, 0);
+            return new FileResult(file, false, output(), null, 0, false, false, null);
+        }
+
+        private FileResult result(Path file, boolean matched, IOException error, Part part) {
+            return new FileResult(file, matched, output(), error, searcher.matchCount(),
+                    searcher.binary(), searcher.stopped(), part);
+        }
+
+        private byte[] output() {
+            sink.flush();
+            byte[] output = buffer.toByteArray();
+            buffer.reset();
+            return output;
+        }
+    }
+
+    /** Bytes [from, to) of a split file; binary is set when the part is searched as binary. */
+    private static final class Part {
+        final long from;
+        final long to;
+        final boolean first;
+        final boolean last;
+        final boolean binary;
+        final byte[] prefix;
+
+        Part(long from, long to, boolean first, boolean last, boolean binary, byte[] prefix) {
+            this.from = from;
+            this.to = to;
+            this.first = first;
+            this.last = last;
+            this.binary = binary;
+            this.prefix = prefix;
+        }
+
+        Part asBinary() {
+            return new Part(from, to, first, last, true, prefix);
+        }
+    }
+
+    /**
+     * Output and outcome of one file or part; error is set when reading stopped early. The
+     * searcher state after a part is kept: its count, whether it ended binary, and whether it
+     * stopped before the end.
+     */
+    private static final class FileResult {
+        final Path file;
+        final boolean matched;
+        final byte[] output;
+        final IOException error;
+        final long count;
+        final boolean binary;
+        final boolean stopped;
+        final Part part;
+
+        FileResult(Path file, boolean matched, byte[] output, IOException error, long count,
+                boolean binary, boolean stopped, Part part) {
+            this.file = file;
+            this.matched = matched;
+            this.output = output;
+            this.error = error;
+            this.count = count;
+            this.binary = binary;
+            this.stopped = stopped;
+            this.part = part;
+        }
+    }
+}
@@ -1,121 +1,330 @@
 package grep.search;
 
 import grep.cli.CommandOptions;
+import grep.engine.CompiledPattern;
 import grep.engine.RegexEngine;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import jdk.jfr.FlightRecorder;
 
 /**
  * SearchExecutor: provides both execute(CommandOptions) (used by tests)
- * and execute (pattern, recursive, paths).
+ * and execute (pattern, recursive, paths), which searches with default options.
  */
 public final class SearchExecutor {
+    /** Characters of a timed-out line quoted in its warning. */
+    private static final int TIMEOUT_EXCERPT = 60;
 
-    // overload used by tests
+    public static boolean execute(String pattern, boolean recursive, List<String> paths) {
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = pattern;
+        opts.recursive = recursive;
+        opts.paths.addAll(paths);
+        return execute(opts);
+    }
+
+    /** Runs the search opts describes; exits with status 2 after an error. */
     public static boolean execute(CommandOptions opts) {
-        return execute(opts.pattern, opts.recursive, opts.paths);
+        try {
+            return search(opts);
+        } catch (FailedException e) {
+            // reported by fail, and the search has unwound, with --stats printed on the way
+            System.exit(2);
+            return false;
+        }
     }
 
-    public static boolean execute(String pattern, boolean recursive, List<String> paths) {
+    private static boolean search(CommandOptions opts) {
+        List<String> paths = opts.paths;
+        int jobs = opts.jobs;
+        OutputMode mode = OutputMode.of(opts);
         boolean anyMatch = false;
+        OutputSink out = OutputSink.stdout();
+        if (opts.index) return index(opts, out);
+        SearchStats stats = opts.stats ? new SearchStats() : null;
+        SearchStats.Counters mainStats = stats == null ? null : stats.counters();
 
         try {
-            if (recursive) {
+            CompiledPattern compiled = opts.stepBudget > 0
+                    ? RegexEngine.compile(opts.pattern, opts.stepBudget)
+                    : RegexEngine.compile(opts.pattern);
+            if (stats != null) stats.engine(compiled);
+            MappedFileSearcher searcher = new MappedFileSearcher();
+            mode.configure(searcher, opts.maxCount);
+            searcher.stats(mainStats);
+            out.stats(mainStats);
+            if (opts.recursive) {
+                FileWalker walker = new FileWalker(opts.includes, opts.excludes, opts.excludeDirs);
+                walker.stats(mainStats);
                 if (paths.isEmpty()) paths.add(".");
                 for (String startArg : paths) {
+                    if (anyMatch && mode.stopsAtFirstMatch()) break;
                     Path start = Paths.get(startArg);
                     if (!Files.exists(start)) {
-                        System.err.println("Error: path does not exist: " + startArg);
-                        System.exit(2);
+                        fail(out, "Error: path does not exist: " + startArg);
                     }
-                    if (Files.isDirectory(start)) {
-                        try (Stream<Path> stream = Files.walk(start)) {
-                            Iterator<Path> it = stream.filter(Files::isRegularFile).iterator();
-                            while (it.hasNext()) {
-                                Path filePath = it.next();
-                                boolean fileMatched = processFileRecursive(filePath, pattern);
-                                if (fileMatched) anyMatch = true;
+                    if (jobs > 1 && (Files.isDirectory(start) || Files.isRegularFile(start))) {
+                        try (ParallelFileSearch parallel = new ParallelFileSearch(jobs, compiled,
+                                mode, opts.maxCount, out, stats)) {
+                            if (Files.isDirectory(start)) {
+                                walker.walk(start, skipUnlikely(start, compiled, mainStats,
+                                        parallel::submit,
+                                        mode.reportsEveryFile() ? parallel::skip : null));
+                            } else {
+                                parallel.submit(start);
                             }
+                            if (parallel.finish()) anyMatch = true;
                         } catch (IOException e) {
                             throw new RuntimeException(e);
                         }
+                    } else if (Files.isDirectory(start)) {
+                        boolean[] found = {false};
+                        try {
+                            walker.walk(start, skipUnlikely(start, compiled, mainStats, filePath -> {
+                                if (processFileRecursive(filePath, compiled, searcher, mode, out)) {
+                                    found[0] = true;
+                                }
+                                return !(found[0] && mode.stopsAtFirstMatch());
+                            }, mode.reportsEveryFile() ? filePath -> {
+                                String name = filePath.toString();
+                                mode.finish(out, name, OutputSink.prefix(name), false, false, 0);
+                                return true;
+                            } : null));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        if (found[0]) anyMatch = true;
                     } else if (Files.isRegularFile(start)) {
-                        boolean fileMatched = processFileRecursive(start, pattern);
+                        boolean fileMatched =
+                                processFileRecursive(start, compiled, searcher, mode, out);
                         if (fileMatched) anyMatch = true;
                     } else {
-                        System.err.println("Error: not a file or directory: " + startArg);
-                        System.exit(2);
+                        fail(out, "Error: not a file or directory: " + startArg);
                     }
                 }
             } else {
                 if (paths.isEmpty()) {
-                    try (BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
-                        String line;
-                        while ((line = br.readLine()) != null) {
-                            if (RegexEngine.matchPatternAnywhere(line, pattern, new HashMap<>())) {
-                                System.out.println(line);
-                                anyMatch = true;
-                            }
-                        }
+                    try {
+                        searcher.onTimeout(timeoutReporter("(standard input)"));
+                        searcher.name("(standard input)");
+                        FileScanEvent event = beginScan();
+                        anyMatch = searcher.search(flushingBeforeReads(System.in, out), compiled,
+                                lineWriter(mode, OutputSink.NO_PREFIX, out));
+                        scanned(event, "(standard input)", 0, searcher);
+                        mode.finish(out, "(standard input)", OutputSink.NO_PREFIX, anyMatch,
+                                searcher.binary(), searcher.matchCount());
                     } catch (IOException e) {
-                        System.err.println("Error reading stdin: " + e.getMessage());
-                        System.exit(2);
+                        fail(out, "Error reading stdin: " + e.getMessage());
                     }
                 } else {
                     int fileCount = paths.size();
-                    for (String filename : paths) {
-                        Path p = Paths.get(filename);
-                        if (!Files.exists(p)) {
-                            System.err.println("Error reading file " + filename + ": No such file");
-                            System.exit(2);
-                        }
-                        if (!Files.isRegularFile(p)) {
-                            System.err.println("Error: not a regular file: " + filename);
-                            System.exit(2);
-                        }
+                    // created for the first file large enough to be searched in parts
+                    ParallelFileSearch parallel = null;
+                    try {
+                        for (String filename : paths) {
+                            if (anyMatch && mode.stopsAtFirstMatch()) break;
+                            Path p = Paths.get(filename);
+                            if (!Files.exists(p)) {
+                                fail(out, "Error reading file " + filename + ": No such file");
+                            }
+                            if (!Files.isRegularFile(p)) {
+                                fail(out, "Error: not a regular file: " + filename);
+                            }
 
-                        try (BufferedReader br = Files.newBufferedReader(p)) {
-                            String line;
-                            while ((line = br.readLine()) != null) {
-                                if (RegexEngine.matchPatternAnywhere(line, pattern, new HashMap<>())) {
-                                    if (fileCount > 1) {
-                                        System.out.println(filename + ":" + line);
-                                    } else {
-                                        System.out.println(line);
+                            try {
+                                byte[] prefix = fileCount > 1
+                                        ? OutputSink.prefix(filename)
+                                        : OutputSink.NO_PREFIX;
+                                boolean fileMatched;
+                                if (ParallelFileSearch.splits(jobs, Files.size(p),
+                                        opts.maxCount)) {
+                                    if (parallel == null) {
+                                        parallel = new ParallelFileSearch(jobs, compiled, mode,
+                                                opts.maxCount, out, stats);
                                     }
-                                    anyMatch = true;
+                                    parallel.submit(p, prefix);
+                                    fileMatched = parallel.finish();
+                                } else {
+                                    fileMatched = searchFile(p, filename, prefix, compiled,
+                                            searcher, mode, out);
                                 }
+                                if (fileMatched) anyMatch = true;
+                            } catch (IOException e) {
+                                fail(out, "Error reading file " + filename + ": "
+                                        + e.getMessage());
                             }
-                        } catch (IOException e) {
-                            System.err.println("Error reading file " + filename + ": " + e.getMessage());
-                            System.exit(2);
                         }
+                    } finally {
+                        if (parallel != null) parallel.close();
                     }
                 }
             }
+            out.flush();
+        } catch (OutputSink.ClosedException e) {
+            // nobody reads the rest, so stop quietly; lines or names being written means a match
+            return anyMatch || mode != OutputMode.COUNT;
+        } catch (FailedException e) {
+            throw e;
         } catch (RuntimeException re) {
-            System.err.println("Matcher error: " + re.getMessage());
-            System.exit(2);
+            fail(out, "Matcher error: " + re.getMessage());
+        } finally {
+            if (stats != null) stats.report(System.err);
         }
         return anyMatch;
     }
 
-    private static boolean processFileRecursive(Path filePath, String pattern) {
-        boolean matched = false;
-        try (BufferedReader br = Files.newBufferedReader(filePath)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (RegexEngine.matchPatternAnywhere(line, pattern, new HashMap<>())) {
-                    System.out.println(filePath + ":" + line);
-                    matched = true;
-                }
+    /**
+     * Leaves out the files that the trigram index of start, if there is one, rules out for the
+     * pattern, and the index file itself; both are counted as skipped in stats, if given. The
+     * files ruled out are passed to onSkipped instead, unless it is null, for modes that report
+     * files without a match.
+     */
+    private static Predicate<Path> skipUnlikely(Path start, CompiledPattern compiled,
+            SearchStats.Counters stats, Predicate<Path> onFile, Predicate<Path> onSkipped) {
+        TrigramIndex index = TrigramIndex.open(start);
+        if (index == null) return onFile;
+        Path indexFile = start.resolve(TrigramIndex.FILE_NAME);
+        BitSet candidates = index.candidates(compiled.requiredLiterals());
+        return file -> {
+            if (file.equals(indexFile)) {
+                if (stats != null) stats.filesSkipped++;
+                return true;
             }
+            if (candidates != null && !index.mustSearch(start, file, candidates)) {
+                if (stats != null) stats.filesSkipped++;
+                return onSkipped == null || onSkipped.test(file);
+            }
+            return onFile.test(file);
+        };
+    }
+
+    /** --index: builds or refreshes the index of every given directory. */
+    private static boolean index(CommandOptions opts, OutputSink out) {
+        FileWalker walker = new FileWalker(opts.includes, opts.excludes, opts.excludeDirs);
+        List<String> dirs = opts.paths.isEmpty() ? List.of(".") : opts.paths;
+        for (String dir : dirs) {
+            Path root = Paths.get(dir);
+            if (!Files.isDirectory(root)) fail(out, "Error: not a directory: " + dir);
+            try {
+                TrigramIndex.update(root, walker);
+            } catch (IOException e) {
+                fail(out, "Error indexing " + dir + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private static boolean processFileRecursive(Path filePath, CompiledPattern compiled,
+            MappedFileSearcher searcher, OutputMode mode, OutputSink out) {
+        boolean matched = false;
+        byte[] prefix = OutputSink.prefix(filePath.toString());
+        try {
+            matched = searchFile(filePath, filePath.toString(), prefix, compiled, searcher, mode,
+                    out);
         } catch (IOException e) {
-            System.err.println("Error reading file " + filePath + ": " + e.getMessage());
-            System.exit(2);
+            fail(out, "Error reading file " + filePath + ": " + e.getMessage());
         }
         return matched;
     }
+
+    /**
+     * Flushes the matches found so far before each read of in, so that they show up while a slow
+     * pipe keeps the next read waiting.
+     */
+    private static InputStream flushingBeforeReads(InputStream in, OutputSink out) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                out.flushPending();
+                return super.read(b, off, len);
+            }
+        };
+    }
+
+    /** Searches one whole file and writes its lines or summary, as the mode asks. */
+    static boolean searchFile(Path file, String name, byte[] prefix, CompiledPattern compiled,
+            MappedFileSearcher searcher, OutputMode mode, OutputSink out) throws IOException {
+        searcher.onTimeout(timeoutReporter(name));
+        searcher.name(name);
+        FileScanEvent event = beginScan();
+        boolean matched = searcher.search(file, compiled, lineWriter(mode, prefix, out));
+        scanned(event, name, 0, searcher);
+        mode.finish(out, name, prefix, matched, searcher.binary(), searcher.matchCount());
+        return matched;
+    }
+
+    /**
+     * Begins a {@link FileScanEvent} for the search about to start, or returns null before any
+     * recording has started; loading the event class would set up Flight Recorder on every run.
+     */
+    static FileScanEvent beginScan() {
+        if (!FlightRecorder.isInitialized()) return null;
+        FileScanEvent event = new FileScanEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends event, from {@link #beginScan} before the search the searcher just finished, and
+     * records it with what that search went through if Flight Recorder wants it.
+     */
+    static void scanned(FileScanEvent event, String name, long offset,
+            MappedFileSearcher searcher) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.path = name;
+        event.offset = offset;
+        event.bytes = searcher.bytesScanned();
+        event.lines = searcher.linesScanned();
+        event.matches = searcher.matchCount();
+        event.binary = searcher.binary();
+        event.commit();
+    }
+
+    /** Writes matching lines after prefix, or ignores them when the mode prints no lines. */
+    static Consumer<CharSequence> lineWriter(OutputMode mode, byte[] prefix, OutputSink out) {
+        if (!mode.printsLines()) return line -> { };
+        return line -> out.line(prefix, line);
+    }
+
+    /**
+     * Warns on stderr about a line of the named input that ran out of the backtracking step
+     * budget; the search goes on and the line counts as not matching.
+     */
+    static Consumer<CharSequence> timeoutReporter(String name) {
+        return line -> {
+            String start = line.length() > TIMEOUT_EXCERPT
+                    ? line.subSequence(0, TIMEOUT_EXCERPT) + "..."
+                    : line.toString();
+            System.err.println("Warning: " + name + ": line timed out, step budget exceeded: "
+                    + start);
+        };
+    }
+
+    /**
+     * Flushes the lines found so far, reports the error and ends the search; {@link #execute}
+     * then exits with status 2.
+     */
+    static void fail(OutputSink out, String message) {
+        try {
+            out.flush();
+        } catch (OutputSink.ClosedException e) {
+            // the message below still reaches stderr
+        }
+        System.err.println(message);
+        throw new FailedException();
+    }
+
+    /** Thrown by {@link #fail} once the error is reported. */
+    private static final class FailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        FailedException() {
+            super(null, null, false, false);
+        }
+    }
 }
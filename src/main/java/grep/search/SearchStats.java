@@ -0,0 +1,143 @@
+package grep.search;
+
+import grep.engine.CompiledPattern;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * What one search run did, for --stats: files walked and skipped, bytes and lines read, lines
+ * matched, bytes written, and the time spent walking, reading, matching and writing. Each thread
+ * counts into its own {@link Counters} with plain fields, so nothing is shared while searching;
+ * the counters are only added up by {@link #report} once every thread is done. The engine side
+ * (matcher runs, backtracking steps, step budget trips) is counted by the {@link CompiledPattern}.
+ *
+ * <p>Time is charged to phases. A thread switches phase with {@link Counters#enter}, which reads
+ * the wall clock and the thread's CPU clock once and charges the time since the last switch to
+ * the phase it leaves. Switches happen per file, per mapped window or stdin block, and per output
+ * drain, never per line. Mapped pages are read when first touched, so for large files part of the
+ * reading shows up as match time. Time of all threads is added up, so the phases of a parallel
+ * search can sum to more than the wall time of the run.
+ */
+final class SearchStats {
+    static final int IDLE = 0;
+    static final int WALK = 1;
+    static final int READ = 2;
+    static final int MATCH = 3;
+    static final int WRITE = 4;
+    private static final String[] PHASES = {"idle", "walk", "read", "match", "write"};
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean THREAD_CPU = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final long startNanos = System.nanoTime();
+    private final long startCpu = processCpuTime();
+    private final Queue<Counters> all = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Counters> local = ThreadLocal.withInitial(() -> {
+        Counters c = new Counters();
+        all.add(c);
+        return c;
+    });
+    private CompiledPattern compiled;
+
+    /** The counters of the calling thread. */
+    Counters counters() {
+        return local.get();
+    }
+
+    /** The pattern of the run, whose engine counters are reported too; call before matching. */
+    void engine(CompiledPattern compiled) {
+        compiled.countEngines();
+        this.compiled = compiled;
+    }
+
+    /** Adds up every thread's counters and prints them to err. */
+    void report(PrintStream err) {
+        counters().enter(IDLE);
+        long wall = System.nanoTime() - startNanos;
+        long cpu = processCpuTime() - startCpu;
+        Counters total = new Counters();
+        for (Counters c : all) {
+            total.filesWalked += c.filesWalked;
+            total.filesSkipped += c.filesSkipped;
+            total.bytesRead += c.bytesRead;
+            total.linesScanned += c.linesScanned;
+            total.matches += c.matches;
+            total.outputBytes += c.outputBytes;
+            for (int p = 0; p < PHASES.length; p++) {
+                total.wall[p] += c.wall[p];
+                total.cpu[p] += c.cpu[p];
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        line(sb, "files: %d walked, %d skipped", total.filesWalked, total.filesSkipped);
+        line(sb, "input: %d bytes, %d lines scanned", total.bytesRead, total.linesScanned);
+        if (compiled != null) {
+            line(sb, "engine: %d matcher runs, %d backtrack steps, %d step budget trips",
+                    compiled.matcherRuns(), compiled.backtrackSteps(), compiled.stepBudgetTrips());
+        }
+        line(sb, "output: %d matching lines, %d bytes written", total.matches,
+                total.outputBytes);
+        line(sb, "time: %s wall, %s cpu", seconds(wall), cpu < 0 ? "?" : seconds(cpu));
+        for (int p = WALK; p < PHASES.length; p++) {
+            line(sb, "  %-6s %s wall, %s cpu", PHASES[p], seconds(total.wall[p]),
+                    THREAD_CPU ? seconds(total.cpu[p]) : "?");
+        }
+        err.print(sb);
+        err.flush();
+    }
+
+    private static void line(StringBuilder sb, String format, Object... args) {
+        sb.append("stats: ").append(String.format(Locale.ROOT, format, args))
+                .append(System.lineSeparator());
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.3f s", nanos / 1e9);
+    }
+
+    /** CPU time of the whole process, JIT and GC included, or -1 where it is unknown. */
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun) {
+            return sun.getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /** Counters of one thread; only that thread writes them. */
+    static final class Counters {
+        long filesWalked;
+        long filesSkipped;
+        long bytesRead;
+        long linesScanned;
+        long matches;
+        long outputBytes;
+        final long[] wall = new long[PHASES.length];
+        final long[] cpu = new long[PHASES.length];
+        private int phase = IDLE;
+        private long since = System.nanoTime();
+        private long cpuSince = threadCpuTime();
+
+        /** Charges the time since the last switch to the current phase; returns the phase left. */
+        int enter(int next) {
+            long now = System.nanoTime();
+            long cpuNow = threadCpuTime();
+            wall[phase] += now - since;
+            cpu[phase] += cpuNow - cpuSince;
+            since = now;
+            cpuSince = cpuNow;
+            int left = phase;
+            phase = next;
+            return left;
+        }
+
+        private static long threadCpuTime() {
+            return THREAD_CPU ? THREADS.getCurrentThreadCpuTime() : 0;
+        }
+    }
+}
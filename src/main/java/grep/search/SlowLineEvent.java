@@ -0,0 +1,42 @@
+package grep.search;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for one line whose match took at least the event's threshold, 10 ms
+ * unless the recording sets another one. Lines are only timed in searches that start while the
+ * event is enabled.
+ */
+@Name("grep.SlowLine")
+@Label("Slow Line")
+@Category("grep")
+@Description("A line that took the pattern long to match or reject")
+@Threshold("10 ms")
+@StackTrace(false)
+final class SlowLineEvent extends jdk.jfr.Event {
+    /** Characters of the line kept in the event. */
+    static final int EXCERPT = 200;
+
+    @Label("Path")
+    String path;
+
+    @Label("Length")
+    @Description("Length of the line in characters")
+    int length;
+
+    @Label("Line")
+    @Description("The start of the line")
+    String line;
+
+    @Label("Matched")
+    boolean matched;
+
+    @Label("Timed Out")
+    @Description("Whether the line ran out of the backtracking step budget")
+    boolean timedOut;
+}
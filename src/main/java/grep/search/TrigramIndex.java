@@ -0,0 +1,371 @@
+package grep.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk trigram index of a directory tree, kept in a {@value #FILE_NAME} file at its root and
+ * written by --index. For each file it records the size and modification time, and for each
+ * trigram (three bytes in a row within one line) the ids of the files containing it. A -r search
+ * of the root looks up the trigrams of the pattern's required literals and skips indexed files
+ * that cannot contain any of them, without opening them. Files that are new or changed since
+ * indexing are always searched, so a stale index costs speed, never matches.
+ *
+ * <p>The file is big-endian: a header (magic, version, file count, trigram count), the file table
+ * (path, size, mtime per id), a table of (trigram, postings offset, file count) sorted by trigram,
+ * then the postings as varint gaps between ascending file ids. It is memory-mapped for searching;
+ * only the file table is read into the heap.
+ */
+final class TrigramIndex {
+    static final String FILE_NAME = ".grep-index";
+
+    /** Larger files are left out of the index and therefore always searched. */
+    static final long MAX_FILE_SIZE = 64L << 20;
+
+    private static final int MAGIC = 0x47524958; // "GRIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 12;
+
+    private final ByteBuffer data;
+    private final String[] paths;
+    private final long[] sizes;
+    private final long[] mtimes;
+    private final Map<String, Integer> ids;
+    private final int trigramCount;
+    private final int tableStart;
+    private final int postingsStart;
+
+    private TrigramIndex(ByteBuffer data) {
+        this.data = data;
+        int files = data.getInt(8);
+        this.trigramCount = data.getInt(12);
+        this.paths = new String[files];
+        this.sizes = new long[files];
+        this.mtimes = new long[files];
+        this.ids = new HashMap<>(files * 2);
+        ByteBuffer in = data.duplicate().position(HEADER_BYTES);
+        for (int id = 0; id < files; id++) {
+            byte[] name = new byte[in.getInt()];
+            in.get(name);
+            paths[id] = new String(name, StandardCharsets.UTF_8);
+            sizes[id] = in.getLong();
+            mtimes[id] = in.getLong();
+            ids.put(paths[id], id);
+        }
+        this.tableStart = in.position();
+        this.postingsStart = tableStart + trigramCount * ENTRY_BYTES;
+    }
+
+    /** Opens the index at root, or returns null when there is none or it cannot be read. */
+    static TrigramIndex open(Path root) {
+        Path file = root.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) return null;
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) return null;
+            return new TrigramIndex(data);
+        } catch (IOException | RuntimeException e) {
+            // unreadable or damaged: search without it
+            return null;
+        }
+    }
+
+    /**
+     * Ids of the indexed files that contain every trigram of at least one literal, or null when
+     * some literal has no trigram and so cannot rule out any file.
+     */
+    BitSet candidates(List<String> literals) {
+        if (literals.isEmpty()) return null;
+        BitSet result = new BitSet(paths.length);
+        for (String literal : literals) {
+            int[] trigrams = trigrams(literal);
+            if (trigrams.length == 0) return null;
+            BitSet files = postings(trigrams[0]);
+            for (int k = 1; k < trigrams.length && !files.isEmpty(); k++) {
+                files.and(postings(trigrams[k]));
+            }
+            result.or(files);
+        }
+        return result;
+    }
+
+    /**
+     * False only if file is indexed, has not changed since, and is not among the candidates; such
+     * a file cannot contain a match.
+     */
+    boolean mustSearch(Path root, Path file, BitSet candidates) {
+        Integer id = ids.get(key(root, file));
+        if (id == null || candidates.get(id)) return true;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.size() != sizes[id] || mtime(attrs) != mtimes[id];
+        } catch (IOException e) {
+            return true; // the search reports it
+        }
+    }
+
+    /**
+     * Writes a new index of the files under root that walker lists. Files whose size and
+     * modification time match the previous index keep their trigrams without being read again.
+     * Returns the number of files that were read.
+     */
+    static int update(Path root, FileWalker walker) throws IOException {
+        TrigramIndex old = open(root);
+        Path indexFile = root.resolve(FILE_NAME);
+        Path tmp = root.resolve(FILE_NAME + ".tmp");
+        List<String> paths = new ArrayList<>();
+        List<long[]> stats = new ArrayList<>();
+        int[] newIds = new int[old == null ? 0 : old.paths.length];
+        Arrays.fill(newIds, -1);
+        Pairs pairs = new Pairs();
+        TrigramReader reader = new TrigramReader();
+        int[] read = {0};
+        try {
+            walker.walk(root, file -> {
+                if (file.equals(indexFile) || file.equals(tmp)) return true;
+                try {
+                    // stat before reading, so a file changed meanwhile looks stale later
+                    BasicFileAttributes attrs =
+                            Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attrs.size() > MAX_FILE_SIZE) return true;
+                    String key = key(root, file);
+                    int id = paths.size();
+                    Integer oldId = old == null ? null : old.ids.get(key);
+                    if (oldId != null && old.sizes[oldId] == attrs.size()
+                            && old.mtimes[oldId] == mtime(attrs)) {
+                        newIds[oldId] = id;
+                    } else {
+                        reader.read(file, id, pairs);
+                        read[0]++;
+                    }
+                    paths.add(key);
+                    stats.add(new long[] {attrs.size(), mtime(attrs)});
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (old != null) old.copyPostings(newIds, pairs);
+        Arrays.sort(pairs.values, 0, pairs.size);
+        write(tmp, paths, stats, pairs);
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return read[0];
+    }
+
+    /** Trigrams of the literal that contain only ASCII characters. */
+    static int[] trigrams(String literal) {
+        int[] out = new int[Math.max(0, literal.length() - 2)];
+        int n = 0;
+        for (int k = 0; k + 3 <= literal.length(); k++) {
+            char a = literal.charAt(k);
+            char b = literal.charAt(k + 1);
+            char c = literal.charAt(k + 2);
+            // other characters are one byte in binary files but several in UTF-8 text
+            if ((a | b | c) >= 0x80) continue;
+            out[n++] = a << 16 | b << 8 | c;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private BitSet postings(int trigram) {
+        BitSet files = new BitSet(paths.length);
+        int at = find(trigram);
+        if (at >= 0) {
+            int[] ids = decode(at, new int[data.getInt(at + 8)]);
+            for (int id : ids) files.set(id);
+        }
+        return files;
+    }
+
+    /** Reads the file ids of the table entry at offset at into ids, which must be large enough. */
+    private int[] decode(int at, int[] ids) {
+        int pos = postingsStart + data.getInt(at + 4);
+        int count = data.getInt(at + 8);
+        int id = -1;
+        for (int k = 0; k < count; k++) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(pos++);
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += gap;
+            ids[k] = id;
+        }
+        return ids;
+    }
+
+    /** Offset of the table entry for trigram, or -1. */
+    private int find(int trigram) {
+        int lo = 0;
+        int hi = trigramCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int at = tableStart + mid * ENTRY_BYTES;
+            int t = data.getInt(at);
+            if (t < trigram) {
+                lo = mid + 1;
+            } else if (t > trigram) {
+                hi = mid - 1;
+            } else {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    /** Adds the postings of files kept by an update under their new ids. */
+    private void copyPostings(int[] newIds, Pairs pairs) {
+        int[] ids = new int[paths.length];
+        for (int e = 0; e < trigramCount; e++) {
+            int at = tableStart + e * ENTRY_BYTES;
+            int trigram = data.getInt(at);
+            decode(at, ids);
+            for (int k = 0, count = data.getInt(at + 8); k < count; k++) {
+                if (newIds[ids[k]] >= 0) pairs.add(trigram, newIds[ids[k]]);
+            }
+        }
+    }
+
+    private static void write(Path file, List<String> paths, List<long[]> stats, Pairs pairs)
+            throws IOException {
+        long[] v = pairs.values;
+        int n = pairs.size;
+        int trigrams = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || v[i] >>> 32 != v[i - 1] >>> 32) trigrams++;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(paths.size());
+            out.writeInt(trigrams);
+            for (int id = 0; id < paths.size(); id++) {
+                byte[] name = paths.get(id).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeLong(stats.get(id)[0]);
+                out.writeLong(stats.get(id)[1]);
+            }
+            int offset = 0;
+            for (int i = 0; i < n; ) {
+                int j = i;
+                int bytes = 0;
+                for (int prev = -1; j < n && v[j] >>> 32 == v[i] >>> 32; j++) {
+                    bytes += varintSize((int) v[j] - prev);
+                    prev = (int) v[j];
+                }
+                out.writeInt((int) (v[i] >>> 32));
+                out.writeInt(offset);
+                out.writeInt(j - i);
+                offset += bytes;
+                i = j;
+            }
+            for (int i = 0; i < n; ) {
+                int j = i;
+                for (int prev = -1; j < n && v[j] >>> 32 == v[i] >>> 32; j++) {
+                    int gap = (int) v[j] - prev;
+                    while (gap >= 0x80) {
+                        out.write(gap & 0x7F | 0x80);
+                        gap >>>= 7;
+                    }
+                    out.write(gap);
+                    prev = (int) v[j];
+                }
+                i = j;
+            }
+        }
+    }
+
+    private static int varintSize(int value) {
+        int bytes = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private static String key(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static long mtime(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Growable list of (trigram, file id) pairs packed into longs, sortable by trigram. */
+    private static final class Pairs {
+        long[] values = new long[1024];
+        int size;
+
+        void add(int trigram, int id) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = (long) trigram << 32 | id;
+        }
+    }
+
+    /** Collects the distinct trigrams of one file, reusing its buffer and bitmap. */
+    private static final class TrigramReader {
+        private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        private final long[] seen = new long[(1 << 24) / 64];
+
+        void read(Path file, int id, Pairs pairs) throws IOException {
+            int first = pairs.size;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                int t = 0;
+                int run = 0;
+                buf.clear();
+                while (channel.read(buf) > 0) {
+                    byte[] bytes = buf.array();
+                    for (int k = 0; k < buf.position(); k++) {
+                        int b = bytes[k] & 0xFF;
+                        if (b == '\n' || b == '\r') {
+                            run = 0;
+                            continue;
+                        }
+                        t = (t << 8 | b) & 0xFFFFFF;
+                        if (++run >= 3 && (seen[t >>> 6] & 1L << t) == 0) {
+                            seen[t >>> 6] |= 1L << t;
+                            pairs.add(t, id);
+                        }
+                    }
+                    buf.clear();
+                }
+            } finally {
+                for (int k = first; k < pairs.size; k++) {
+                    int t = (int) (pairs.values[k] >>> 32);
+                    seen[t >>> 6] &= ~(1L << t);
+                }
+            }
+        }
+    }
+}
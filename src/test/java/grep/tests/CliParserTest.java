@@ -5,6 +5,7 @@
 import grep.cli.CliParser;
 import grep.cli.CommandOptions;
 import grep.cli.UsageException;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 public class CliParserTest {
@@ -38,4 +39,62 @@ void testUnknownFlagThrows() {
         String[] args = {"-X", "hello"};
         assertThrows(UsageException.class, () -> CliParser.parse(args));
     }
+
+    @Test
+    void testParseJobsFlag() throws Exception {
+        assertEquals(4, CliParser.parse(new String[] {"-r", "-j", "4", "-E", "x", "dir"}).jobs);
+        assertEquals(2, CliParser.parse(new String[] {"-j2", "-E", "x"}).jobs);
+        assertTrue(CliParser.parse(new String[] {"-E", "x"}).jobs >= 1);
+        assertThrows(UsageException.class, () -> CliParser.parse(new String[] {"-j", "0", "-E", "x"}));
+        assertThrows(UsageException.class, () -> CliParser.parse(new String[] {"-E", "x", "-j"}));
+        assertThrows(UsageException.class, () -> CliParser.parse(new String[] {"-jx", "-E", "x"}));
+    }
+
+    @Test
+    void testParseFileFilterFlags() throws Exception {
+        CommandOptions opts = CliParser.parse(new String[] {
+                "-r", "--include", "*.java", "--include=*.kt", "--exclude=*Test.java",
+                "--exclude-dir", ".git", "-E", "x", "dir"});
+        assertEquals(List.of("*.java", "*.kt"), opts.includes);
+        assertEquals(List.of("*Test.java"), opts.excludes);
+        assertEquals(List.of(".git"), opts.excludeDirs);
+        assertEquals(List.of("dir"), opts.paths);
+        assertThrows(UsageException.class, () -> CliParser.parse(new String[] {"-E", "x", "--include"}));
+        assertThrows(UsageException.class, () -> CliParser.parse(new String[] {"--exclude={a", "-E", "x"}));
+    }
+
+    @Test
+    void testParseOutputModeFlags() throws Exception {
+        CommandOptions opts = CliParser.parse(new String[] {"-l", "-c", "-q", "-E", "x"});
+        assertTrue(opts.filesWithMatches);
+        assertTrue(opts.count);
+        assertTrue(opts.quiet);
+        assertFalse(CliParser.parse(new String[] {"-E", "x"}).quiet);
+    }
+
+    @Test
+    void testParseMaxCountFlag() throws Exception {
+        assertEquals(5, CliParser.parse(new String[] {"-m", "5", "-E", "x"}).maxCount);
+        assertEquals(0, CliParser.parse(new String[] {"-m0", "-E", "x"}).maxCount);
+        assertEquals(Long.MAX_VALUE, CliParser.parse(new String[] {"-E", "x"}).maxCount);
+        assertThrows(UsageException.class, () -> CliParser.parse(new String[] {"-m", "-1", "-E", "x"}));
+        assertThrows(UsageException.class, () -> CliParser.parse(new String[] {"-E", "x", "-m"}));
+    }
+
+    @Test
+    void testParseStepBudgetFlag() throws Exception {
+        assertEquals(500, CliParser.parse(new String[] {"--step-budget", "500", "-E", "x"}).stepBudget);
+        assertEquals(7, CliParser.parse(new String[] {"--step-budget=7", "-E", "x"}).stepBudget);
+        assertEquals(0, CliParser.parse(new String[] {"-E", "x"}).stepBudget);
+        assertThrows(UsageException.class,
+                () -> CliParser.parse(new String[] {"--step-budget=0", "-E", "x"}));
+        assertThrows(UsageException.class,
+                () -> CliParser.parse(new String[] {"-E", "x", "--step-budget"}));
+    }
+
+    @Test
+    void testParseStatsFlag() throws Exception {
+        assertTrue(CliParser.parse(new String[] {"--stats", "-E", "x"}).stats);
+        assertFalse(CliParser.parse(new String[] {"-E", "x"}).stats);
+    }
 }
@@ -0,0 +1,120 @@
+package grep.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import grep.engine.CompiledPattern;
+import grep.engine.RegexEngine;
+import org.junit.jupiter.api.Test;
+
+public class CompiledPatternTests {
+
+    @Test
+    void testCompiledPatternIsReusableAcrossLines() {
+        CompiledPattern p = RegexEngine.compile("(\\d+) (\\w+) squares and \\1 \\2 circles");
+        assertTrue(p.matches("3 red squares and 3 red circles"));
+        assertFalse(p.matches("3 red squares and 4 red circles"));
+        assertTrue(p.matches("10 blue squares and 10 blue circles"));
+        assertEquals(2, p.groupCount());
+    }
+
+    @Test
+    void testAnchorsAndAlternationAreResolvedAtCompileTime() {
+        CompiledPattern p = RegexEngine.compile("^(cat|dog)s?$");
+        assertTrue(p.matches("cat"));
+        assertTrue(p.matches("dogs"));
+        assertFalse(p.matches("a cat"));
+        assertFalse(p.matches("cats!"));
+    }
+
+    @Test
+    void testEscapedMetacharactersAreLiterals() {
+        assertTrue(RegexEngine.compile("a\\.b").matches("a.b"));
+        assertFalse(RegexEngine.compile("a\\.b").matches("axb"));
+        assertTrue(RegexEngine.compile("cost\\$").matches("cost$ 5"));
+    }
+
+    @Test
+    void testAcceptsAnyCharSequence() {
+        assertTrue(RegexEngine.compile("or.+$").matches(new StringBuilder("orange")));
+    }
+
+    @Test
+    void testMalformedPatternsFailAtCompile() {
+        assertThrows(RuntimeException.class, () -> RegexEngine.compile("(abc"));
+        assertThrows(RuntimeException.class, () -> RegexEngine.compile("[abc"));
+        assertThrows(RuntimeException.class, () -> RegexEngine.compile("abc\\"));
+    }
+
+    @Test
+    void testRequiredLiteralPrefilterKeepsMatches() {
+        CompiledPattern p = RegexEngine.compile("ERROR \\d+");
+        assertTrue(p.matches("2024-01-01 ERROR 42 disk full"));
+        assertFalse(p.matches("2024-01-01 ERROR disk full"));
+        assertFalse(p.matches("2024-01-01 INFO 42 all good"));
+
+        CompiledPattern alt = RegexEngine.compile("(user|uid)=(\\w+)");
+        assertTrue(alt.matches("login uid=7"));
+        assertTrue(alt.matches("login user=bob"));
+        assertFalse(alt.matches("login name=bob"));
+
+        CompiledPattern optional = RegexEngine.compile("colou?r code");
+        assertTrue(optional.matches("color code"));
+        assertTrue(optional.matches("the colour code"));
+        assertFalse(optional.matches("colr code"));
+    }
+
+    @Test
+    void testPlainLiteralPatterns() {
+        CompiledPattern p = RegexEngine.compile("abab");
+        assertTrue(p.matches("aabababa"));
+        assertFalse(p.matches("abaabba"));
+        assertTrue(p.matches("abab"));
+        assertFalse(p.matches("aba"));
+        // characters sharing a low byte with pattern characters must not cause skipped matches
+        assertTrue(RegexEngine.compile("\u0161x").matches("a\u0161\u0161x"));
+        assertTrue(RegexEngine.compile("ab\u0161").matches("ab\u0061ab\u0161"));
+    }
+
+    @Test
+    void testStartOffsetSkippingKeepsMatches() {
+        // the first character may come from after an optional or empty-capable group
+        assertTrue(RegexEngine.compile("(a*)b").matches("xxxb"));
+        assertTrue(RegexEngine.compile("(t)?x\\1").matches("yytxt"));
+        assertEquals(3, RegexEngine.compile("(x|y)+t\\1").match("ab xyty").start());
+        assertTrue(RegexEngine.compile("[XYZ](\\w+) \\1").matches("an Xfoo foo"));
+        assertFalse(RegexEngine.compile("[XYZ](\\w+) \\1").matches("an xfoo foo"));
+        // lines shorter than any match are rejected, empty matches still fit at the end
+        assertFalse(RegexEngine.compile("(ab|cd)\\1").matches("aba"));
+        assertTrue(RegexEngine.compile("(ab|cd)\\1").matches("abab"));
+        assertEquals(2, RegexEngine.compile("x*$").match("ab").start());
+        assertTrue(RegexEngine.compile("^(a?)\\1$").matches(""));
+    }
+
+    @Test
+    void testMatcherRunsAndBacktrackStepsAreCountedOverThreads() throws Exception {
+        CompiledPattern literal = RegexEngine.compile("needle");
+        literal.countEngines();
+        assertFalse(literal.matches("hay"));
+        assertTrue(literal.matches("a needle"));
+        // the literal prefilter answers both lines without running a matcher
+        assertEquals(0, literal.matcherRuns());
+
+        CompiledPattern p = RegexEngine.compile("(\\w+) \\1");
+        p.countEngines();
+        assertTrue(p.matches("say it it"));
+        Thread other = new Thread(() -> p.matches("no repeat here"));
+        other.start();
+        other.join();
+        assertEquals(2, p.matcherRuns());
+        long steps = p.backtrackSteps();
+        assertTrue(steps > 0);
+        assertFalse(p.matches("x y"));
+        assertTrue(p.backtrackSteps() > steps);
+
+        // without countEngines no engine is kept, so nothing is added up
+        CompiledPattern uncounted = RegexEngine.compile("(\\w+) \\1");
+        assertTrue(uncounted.matches("say it it"));
+        assertEquals(0, uncounted.matcherRuns());
+        assertEquals(0, uncounted.backtrackSteps());
+    }
+}
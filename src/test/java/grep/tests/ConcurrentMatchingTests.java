@@ -0,0 +1,98 @@
+package grep.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import grep.engine.CompiledPattern;
+import grep.engine.RegexEngine;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentMatchingTests {
+
+    private static final String[] PATTERNS = {
+        "(cat) and \\1",
+        "(\\d+) (\\w+) squares and \\1 \\2 circles",
+        "((\\w\\w\\w\\w) (\\d\\d\\d)) is doing \\2 \\3 times",
+        "^(a|b)+c$",
+        "[^xyz]+ (dog|cat)s?",
+        "x(y(z))\\2",
+    };
+
+    private static final String[] WORDS = {
+        "cat", "dog", "and", "3", "red", "squares", "circles", "grep", "101", "is", "doing",
+        "times", "a", "b", "c", "ab", "xyz", "cats", "yz", "z",
+    };
+
+    private static List<String> inputs(long seed, int count) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>();
+        for (int n = 0; n < count; n++) {
+            StringBuilder sb = new StringBuilder();
+            int words = 1 + random.nextInt(8);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) sb.append(' ');
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            lines.add(sb.toString());
+        }
+        lines.add("cat and cat");
+        lines.add("3 red squares and 3 red circles");
+        lines.add("grep 101 is doing grep 101 times");
+        lines.add("ababc");
+        lines.add("xyzz");
+        return lines;
+    }
+
+    private static boolean[][] expected(List<String> lines) {
+        boolean[][] results = new boolean[PATTERNS.length][lines.size()];
+        for (int p = 0; p < PATTERNS.length; p++) {
+            for (int l = 0; l < lines.size(); l++) {
+                results[p][l] = RegexEngine.matchPatternAnywhere(lines.get(l), PATTERNS[p], new HashMap<>());
+            }
+        }
+        return results;
+    }
+
+    @Test
+    void testSharedCompiledPatternsMatchSingleThreadedResults() throws Exception {
+        List<String> lines = inputs(42L, 300);
+        boolean[][] expected = expected(lines);
+        CompiledPattern[] compiled = new CompiledPattern[PATTERNS.length];
+        for (int p = 0; p < PATTERNS.length; p++) compiled[p] = RegexEngine.compile(PATTERNS[p]);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < 32; t++) {
+                final int offset = t;
+                Callable<Integer> task = () -> {
+                    int mismatches = 0;
+                    for (int n = 0; n < lines.size(); n++) {
+                        int l = (n + offset * 7) % lines.size();
+                        for (int p = 0; p < PATTERNS.length; p++) {
+                            // alternate between the shared compiled pattern and a fresh compile
+                            boolean actual = (n + p) % 2 == 0
+                                    ? compiled[p].matches(lines.get(l))
+                                    : RegexEngine.matchPatternAnywhere(lines.get(l), PATTERNS[p], new HashMap<>());
+                            if (actual != expected[p][l]) mismatches++;
+                        }
+                    }
+                    return mismatches;
+                };
+                futures.add(pool.submit(task));
+            }
+            for (Future<Integer> f : futures) {
+                assertEquals(0, f.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package grep.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import grep.corpus.CorpusGenerator;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CorpusGeneratorTests {
+
+    @Test
+    void testSameSeedWritesSameDataset(@TempDir Path tmp) throws Exception {
+        Path a = new CorpusGenerator(5).dataset(tmp.resolve("a"), 2 << 20);
+        Path b = new CorpusGenerator(5).dataset(tmp.resolve("b"), 2 << 20);
+        List<Path> files = filesUnder(a);
+        assertEquals(files, filesUnder(b));
+        for (Path file : files) {
+            assertArrayEquals(Files.readAllBytes(a.resolve(file)),
+                    Files.readAllBytes(b.resolve(file)), file.toString());
+        }
+        Path c = new CorpusGenerator(6).dataset(tmp.resolve("c"), 2 << 20);
+        assertFalse(Arrays.equals(Files.readAllBytes(a.resolve(files.get(0))),
+                Files.readAllBytes(c.resolve(files.get(0)))));
+    }
+
+    @Test
+    void testDatasetHasEveryKindOfFile(@TempDir Path tmp) throws Exception {
+        long size = 4 << 20;
+        Path root = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED).dataset(tmp, size);
+        long total = 0;
+        for (Path file : filesUnder(root)) total += Files.size(root.resolve(file));
+        assertTrue(total >= size && total < size + size / 10, "size " + total);
+
+        String log = Files.readString(root.resolve("logs/access-0.log"));
+        assertTrue(log.contains("ERROR"));
+        assertTrue(log.contains("request timeout"));
+        assertTrue(log.chars().anyMatch(ch -> ch > 127), "some UTF-8");
+
+        String longLine = Files.readString(root.resolve("data/long-lines.txt")).lines()
+                .findFirst().orElseThrow();
+        assertTrue(longLine.length() >= 256 << 10);
+
+        byte[] latin1 = Files.readAllBytes(root.resolve("data/latin1.log"));
+        assertNotEquals(new String(latin1, StandardCharsets.ISO_8859_1),
+                new String(latin1, StandardCharsets.UTF_8), "invalid UTF-8");
+
+        byte[] blob = Files.readAllBytes(root.resolve("bin/blob-0.bin"));
+        assertTrue(new String(blob, 0, 8192, StandardCharsets.ISO_8859_1).indexOf('\0') >= 0);
+
+        long sources = filesUnder(root.resolve("src")).stream()
+                .filter(p -> p.toString().endsWith(".java")).count();
+        assertTrue(sources > 10);
+        assertTrue(filesUnder(root.resolve("src")).stream().anyMatch(p -> p.getNameCount() > 6));
+    }
+
+    private static List<Path> filesUnder(Path root) throws Exception {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).map(root::relativize).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
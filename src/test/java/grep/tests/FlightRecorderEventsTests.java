@@ -0,0 +1,112 @@
+package grep.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import grep.cli.CommandOptions;
+import grep.search.SearchExecutor;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FlightRecorderEventsTests {
+
+    /** Runs a search while recording the grep events, slow lines of any duration included. */
+    private static List<RecordedEvent> record(CommandOptions opts, Path tmp) throws Exception {
+        Path dump = tmp.resolve("search.jfr");
+        PrintStream originalOut = System.out;
+        try (Recording recording = new Recording()) {
+            recording.enable("grep.PatternCompile");
+            recording.enable("grep.FileScan");
+            recording.enable("grep.SlowLine").withThreshold(Duration.ZERO);
+            recording.start();
+            System.setOut(new PrintStream(new ByteArrayOutputStream(), true,
+                    StandardCharsets.UTF_8));
+            try {
+                SearchExecutor.execute(opts);
+            } finally {
+                System.setOut(originalOut);
+            }
+            recording.stop();
+            recording.dump(dump);
+        }
+        return RecordingFile.readAllEvents(dump);
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testSearchRecordsCompileScanAndLineEvents(@TempDir Path tmp) throws Exception {
+        Path a = Files.writeString(tmp.resolve("a.txt"), "one one\ntwo\n");
+        Path b = Files.writeString(tmp.resolve("b.txt"), "three three\nfour four\nfive\n");
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "(\\w+) \\1";
+        opts.paths.add(a.toString());
+        opts.paths.add(b.toString());
+        List<RecordedEvent> events = record(opts, tmp);
+
+        List<RecordedEvent> compiles = named(events, "grep.PatternCompile");
+        assertEquals(1, compiles.size());
+        assertEquals("(\\w+) \\1", compiles.get(0).getString("pattern"));
+        assertEquals(1, compiles.get(0).getInt("groups"));
+        assertTrue(compiles.get(0).getBoolean("backtracking"));
+
+        List<RecordedEvent> scans = named(events, "grep.FileScan");
+        assertEquals(2, scans.size());
+        RecordedEvent scanB = scans.stream()
+                .filter(e -> e.getString("path").equals(b.toString())).findFirst().orElseThrow();
+        assertEquals(27, scanB.getLong("bytes"));
+        assertEquals(3, scanB.getLong("lines"));
+        assertEquals(2, scanB.getLong("matches"));
+        assertEquals(0, scanB.getLong("offset"));
+        assertFalse(scanB.getBoolean("binary"));
+
+        List<RecordedEvent> lines = named(events, "grep.SlowLine");
+        assertEquals(5, lines.size());
+        RecordedEvent two = lines.stream().filter(e -> e.getString("line").equals("two"))
+                .findFirst().orElseThrow();
+        assertEquals(a.toString(), two.getString("path"));
+        assertEquals(3, two.getInt("length"));
+        assertFalse(two.getBoolean("matched"));
+        assertFalse(two.getBoolean("timedOut"));
+    }
+
+    @Test
+    void testTimedOutLineIsRecordedWithItsExcerpt(@TempDir Path tmp) throws Exception {
+        String line = "ab".repeat(150) + "cx";
+        Path file = Files.writeString(tmp.resolve("slow.txt"), line + "\n");
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "(\\w+)+\\1x";
+        opts.stepBudget = 100_000;
+        opts.paths.add(file.toString());
+        PrintStream originalErr = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        List<RecordedEvent> events;
+        try {
+            events = record(opts, tmp);
+        } finally {
+            System.setErr(originalErr);
+        }
+
+        List<RecordedEvent> lines = named(events, "grep.SlowLine");
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).getBoolean("timedOut"));
+        assertFalse(lines.get(0).getBoolean("matched"));
+        assertEquals(302, lines.get(0).getInt("length"));
+        assertEquals(line.substring(0, 200), lines.get(0).getString("line"));
+    }
+}
@@ -0,0 +1,86 @@
+package grep.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import grep.engine.CompiledPattern;
+import grep.engine.RegexEngine;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class LinearEngineTests {
+
+    @Test
+    void testEngineSelection() {
+        assertFalse(RegexEngine.compile("(a|aa)+b").usesBacktracking());
+        assertFalse(RegexEngine.compile("^[abc]*\\d?$").usesBacktracking());
+        assertTrue(RegexEngine.compile("(cat) and \\1").usesBacktracking());
+    }
+
+    @Test
+    void testPathologicalAlternationRepeatIsLinear() {
+        CompiledPattern p = RegexEngine.compile("(a|aa)+b");
+        String input = "a".repeat(5_000);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertFalse(p.matches(input));
+            assertTrue(p.matches(input + "b"));
+        });
+    }
+
+    @Test
+    void testPathologicalNestedRepeatIsLinear() {
+        CompiledPattern p = RegexEngine.compile("(\\w+)*x");
+        String input = "abcdefghij".repeat(500);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertFalse(p.matches(input));
+            assertTrue(p.matches(input + "x"));
+        });
+    }
+
+    @Test
+    void testCapturesFromLinearEngine() {
+        Map<Integer, String> groups = new HashMap<>();
+        assertTrue(RegexEngine.matchPatternAnywhere("say cat now", "(c.t|d.g) (\\w+)", groups));
+        assertEquals("cat", groups.get(1));
+        assertEquals("now", groups.get(2));
+
+        groups.clear();
+        assertTrue(RegexEngine.matchPatternAnywhere("xababy", "x(ab)+y", groups));
+        assertEquals("ab", groups.get(1));
+
+        groups.clear();
+        assertTrue(RegexEngine.matchPatternAnywhere("ac", "a(b)?c", groups));
+        assertFalse(groups.containsKey(1));
+    }
+
+    @Test
+    void testEmptyAndAnchoredEdgeCases() {
+        assertTrue(RegexEngine.compile("^$").matches(""));
+        assertFalse(RegexEngine.compile("^$").matches("a"));
+        assertTrue(RegexEngine.compile("(a*)*b").matches("aaab"));
+        assertTrue(RegexEngine.compile("(x|)y").matches("y"));
+    }
+
+    @Test
+    void testDfaHandlesNonAsciiInput() {
+        assertTrue(RegexEngine.compile("caf.$").matches("un café"));
+        assertTrue(RegexEngine.compile("\\w+ü").matches("grüß gott, müü"));
+        assertFalse(RegexEngine.compile("^[a-z]+$").matches("naïve"));
+    }
+
+    @Test
+    void testDfaStateExplosionStillAnswersCorrectly() {
+        // the n-th character from the end must be 'a': 2^n DFA states, more than the cache holds
+        CompiledPattern p = RegexEngine.compile("a[ab][ab][ab][ab][ab][ab][ab][ab][ab][ab][ab][ab]$");
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) sb.append(random.nextBoolean() ? 'a' : 'b');
+        String input = sb.toString();
+        boolean expected = input.charAt(input.length() - 13) == 'a';
+        assertEquals(expected, p.matches(input));
+        assertTrue(p.matches(input + "a" + "b".repeat(12)));
+        assertFalse(p.matches(input + "b".repeat(13)));
+    }
+}
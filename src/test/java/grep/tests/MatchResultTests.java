@@ -0,0 +1,44 @@
+package grep.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import grep.engine.MatchResult;
+import grep.engine.RegexEngine;
+import org.junit.jupiter.api.Test;
+
+public class MatchResultTests {
+
+    @Test
+    void testGroupSpansFromLinearEngine() {
+        MatchResult m = RegexEngine.compile("(\\w+)=(\\d+)").match("set user=42 now");
+        assertNotNull(m);
+        assertEquals(2, m.groupCount());
+        assertEquals(4, m.start());
+        assertEquals(11, m.end());
+        assertEquals(4, m.start(1));
+        assertEquals(8, m.end(1));
+        assertEquals("user", m.group(1));
+        assertEquals("42", m.group(2));
+        assertEquals("user=42", m.group(0));
+    }
+
+    @Test
+    void testGroupSpansFromBacktracker() {
+        MatchResult m = RegexEngine.compile("(\\d+) (\\w+) squares and \\1 \\2").match("x 3 red squares and 3 red");
+        assertNotNull(m);
+        assertEquals(2, m.start());
+        assertEquals("3", m.group(1));
+        assertEquals("red", m.group(2));
+        assertEquals("3 red squares and 3 red", m.group(0));
+    }
+
+    @Test
+    void testUnmatchedGroupAndNoMatch() {
+        MatchResult m = RegexEngine.compile("a(b)?c").match("ac");
+        assertNotNull(m);
+        assertEquals(-1, m.start(1));
+        assertNull(m.group(1));
+        assertNull(RegexEngine.compile("a(b)?c").match("ab"));
+        assertThrows(IndexOutOfBoundsException.class, () -> m.group(2));
+    }
+}
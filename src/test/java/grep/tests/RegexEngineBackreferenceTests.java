@@ -2,7 +2,10 @@
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import grep.engine.CompiledPattern;
 import grep.engine.RegexEngine;
+import grep.engine.StepBudgetExceededException;
+import java.time.Duration;
 import java.util.HashMap;
 import org.junit.jupiter.api.Test;
 
@@ -29,6 +32,17 @@ void testSingleBackreference_SB5() {
                 "^(\\w+) starts and ends with \\1$", new HashMap<>()));
     }
 
+    @Test
+    void testBackreferenceToMissingGroupNeverMatches() {
+        assertFalse(RegexEngine.matchPatternAnywhere("aa", "(a)\\2", new HashMap<>()));
+        assertFalse(RegexEngine.matchPatternAnywhere("aa1", "(a)\\41", new HashMap<>()));
+        assertFalse(RegexEngine.matchPatternAnywhere("a41", "a\\41", new HashMap<>()));
+        CompiledPattern p = RegexEngine.compile("(a)\\2|b");
+        assertFalse(p.matches("aa"));
+        assertNull(p.match("aa"));
+        assertTrue(p.matches("ab"));
+    }
+
     @Test
     void testMultipleBackreferences_TG1() {
         assertTrue(RegexEngine.matchPatternAnywhere("3 red squares and 3 red circles",
@@ -97,4 +111,52 @@ void testNestedBackreferences_XE5() {
                 new HashMap<>()
         ));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testBacktrackingAfterBackreferenceIsBounded() {
+        CompiledPattern p = RegexEngine.compile("(x)\\1[ab]*[ab]*[ab]*[ab]*c");
+        String input = "xx" + "ab".repeat(150);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertFalse(p.matches(input));
+            assertTrue(p.matches(input + "c"));
+        });
+    }
+
+    @Test
+    void testRepeatedGroupOnLongLineIsLinear() {
+        CompiledPattern p = RegexEngine.compile("(\\w)(\\w+ )+x\\1");
+        String input = "ab ".repeat(400);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertFalse(p.matches(input));
+            assertTrue(p.matches(input + "xa"));
+        });
+    }
+
+    @Test
+    void testBackreferenceToRepeatedGroupUsesLastIteration() {
+        HashMap<Integer, String> groups = new HashMap<>();
+        assertTrue(RegexEngine.matchPatternAnywhere("abb", "^(a|b)+\\1$", groups));
+        assertEquals("b", groups.get(1));
+        assertFalse(RegexEngine.matchPatternAnywhere("aba", "^(a|b)+\\1$", new HashMap<>()));
+        assertTrue(RegexEngine.matchPatternAnywhere("cat dog dog", "^(\\w+ )+\\1?dog$", new HashMap<>()));
+    }
+
+    @Test
+    void testStepBudgetFallsBackToLinearCheckOrTimesOut() {
+        CompiledPattern p = RegexEngine.compile("(\\w+)+\\1x", 100_000);
+        String noX = "ab".repeat(100);
+        // (\w+)+(\w+)x, the pattern without its backreference, rules the line out for good
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertFalse(p.matches(noX)));
+        assertEquals(1, p.stepBudgetTrips());
+
+        // here it matches, so whether the pattern does stays unknown
+        StepBudgetExceededException e = assertThrows(StepBudgetExceededException.class,
+                () -> p.match(noX + "cx"));
+        assertEquals(100_000, e.budget());
+        assertEquals(2, p.stepBudgetTrips());
+
+        assertTrue(p.matches("ababx"));
+        assertEquals(2, p.stepBudgetTrips());
+        assertThrows(IllegalArgumentException.class, () -> RegexEngine.compile("(a)\\1", 0));
+    }
+}
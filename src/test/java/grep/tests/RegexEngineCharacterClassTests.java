@@ -48,4 +48,17 @@ void testDigitClass_OQ2() {
         assertTrue(RegexEngine.matchPatternAnywhere("123", "\\d", new HashMap<>()));
         assertFalse(RegexEngine.matchPatternAnywhere("apple", "\\d", new HashMap<>()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testClassesOutsideAscii() {
+        // U+0663 ARABIC-INDIC DIGIT THREE, U+00E9 e with acute
+        assertTrue(RegexEngine.matchPatternAnywhere("\u0663", "^\\d$", new HashMap<>()));
+        assertTrue(RegexEngine.matchPatternAnywhere("caf\u00e9", "^\\w+$", new HashMap<>()));
+        assertTrue(RegexEngine.matchPatternAnywhere("\u00e9t\u00e9", "^[\u00e0-\u00ffa-z]+$", new HashMap<>()));
+        assertFalse(RegexEngine.matchPatternAnywhere("\u00e9", "[^\u00e0-\u00ff]", new HashMap<>()));
+        assertTrue(RegexEngine.matchPatternAnywhere("\u0100", "[^\u00e0-\u00ff]", new HashMap<>()));
+        // a reversed range is empty, a trailing '-' is literal
+        assertTrue(RegexEngine.matchPatternAnywhere("-", "^[z-a-]$", new HashMap<>()));
+        assertFalse(RegexEngine.matchPatternAnywhere("m", "[z-a-]", new HashMap<>()));
+    }
+}
@@ -3,12 +3,24 @@
 import static org.junit.jupiter.api.Assertions.*;
 
 import grep.cli.CommandOptions;
+import grep.corpus.CorpusGenerator;
 import grep.search.SearchExecutor;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -115,4 +127,508 @@ void testMultiLineFile_OL9(@TempDir Path tmp) throws Exception {
         // but not "lemon"
         assertFalse(out.contains("lemon"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testLineEndingsAndNonAsciiLines(@TempDir Path tmp) throws Exception {
+        Path f = tmp.resolve("mixed.txt");
+        Files.writeString(f, "caf\u00e9 au lait\r\nberry tea\rcaf\u00e9 noir\nwater");
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "^\\w+ [a-z]+$";
+        opts.paths.add(f.toString());
+
+        String out = runAndCapture(opts);
+        assertEquals(String.join(System.lineSeparator(), "berry tea", "caf\u00e9 noir", ""), out);
+    }
+
+    @Test
+    void testLargeFileIsSearchedAcrossLineBoundaries(@TempDir Path tmp) throws Exception {
+        Path f = tmp.resolve("large.txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40_000; i++) {
+            sb.append(i % 9_999 == 0 ? "needle " + i : "hay " + i).append('\n');
+        }
+        Files.writeString(f, sb.toString());
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "needle \\d+";
+        opts.paths.add(f.toString());
+
+        String out = runAndCapture(opts);
+        assertEquals(String.join(System.lineSeparator(),
+                "needle 0", "needle 9999", "needle 19998", "needle 29997", "needle 39996", ""), out);
+    }
+
+    @Test
+    void testOutputLargerThanBufferKeepsOrder(@TempDir Path tmp) throws Exception {
+        Path a = tmp.resolve("a.txt");
+        Path b = tmp.resolve("b.txt");
+        StringBuilder expected = new StringBuilder();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append("line ").append(i).append(" \u00e9\n");
+            expected.append(a).append(":line ").append(i).append(" \u00e9").append(System.lineSeparator());
+        }
+        Files.writeString(a, sb.toString());
+        Files.writeString(b, "line x\n");
+        expected.append(b).append(":line x").append(System.lineSeparator());
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "^line";
+        opts.paths.add(a.toString());
+        opts.paths.add(b.toString());
+
+        assertEquals(expected.toString(), runAndCapture(opts));
+    }
+
+    @Test
+    void testParallelRecursiveSearchKeepsSequentialOrder(@TempDir Path tmp) throws Exception {
+        for (int d = 0; d < 5; d++) {
+            Path sub = Files.createDirectories(tmp.resolve("d" + d).resolve("inner"));
+            for (int f = 0; f < 20; f++) {
+                Path dir = f % 2 == 0 ? sub : sub.getParent();
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < 50; i++) sb.append(i % 7 == 0 ? "hit " : "miss ").append(i).append('\n');
+                Files.writeString(dir.resolve("f" + f + ".txt"), sb.toString());
+            }
+        }
+
+        CommandOptions sequential = new CommandOptions();
+        sequential.pattern = "^hit \\d+";
+        sequential.recursive = true;
+        sequential.jobs = 1;
+        sequential.paths.add(tmp.toString());
+
+        CommandOptions parallel = new CommandOptions();
+        parallel.pattern = sequential.pattern;
+        parallel.recursive = true;
+        parallel.jobs = 8;
+        parallel.paths.add(tmp.toString());
+
+        String expected = runAndCapture(sequential);
+        assertEquals(100 * 8, expected.lines().count());
+        assertEquals(expected, runAndCapture(parallel));
+    }
+
+    @Test
+    void testBinaryFilesAreReportedInsteadOfPrinted(@TempDir Path tmp) throws Exception {
+        Path text = tmp.resolve("a.txt");
+        Files.writeString(text, "needle here\n");
+        Path nul = tmp.resolve("b.bin");
+        Files.write(nul, new byte[] {'x', 0, 'y', '\n', 'n', 'e', 'e', 'd', 'l', 'e', '\n'});
+        Path latin1 = tmp.resolve("c.dat");
+        Files.write(latin1, new byte[] {'n', 'e', 'e', 'd', 'l', 'e', ' ', (byte) 0xE9, '\n'});
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "needle";
+        opts.paths.add(text.toString());
+        opts.paths.add(nul.toString());
+        opts.paths.add(latin1.toString());
+
+        String out = runAndCapture(opts);
+        String nl = System.lineSeparator();
+        assertEquals(text + ":needle here" + nl
+                + "Binary file " + nul + " matches" + nl
+                + "Binary file " + latin1 + " matches" + nl, out);
+    }
+
+    @Test
+    void testIncludeExcludeAndExcludeDirFilterTheWalk(@TempDir Path tmp) throws Exception {
+        Path src = Files.createDirectories(tmp.resolve("src"));
+        Path git = Files.createDirectories(tmp.resolve(".git").resolve("objects"));
+        Path target = Files.createDirectories(tmp.resolve("target"));
+        Files.writeString(src.resolve("App.java"), "class App {}\n");
+        Files.writeString(src.resolve("AppTest.java"), "class AppTest {}\n");
+        Files.writeString(src.resolve("notes.txt"), "class notes\n");
+        Files.writeString(git.resolve("pack.java"), "class Packed\n");
+        Files.writeString(target.resolve("Gen.java"), "class Gen\n");
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "^class";
+        opts.recursive = true;
+        opts.jobs = 1;
+        opts.includes.add("*.java");
+        opts.excludes.add("*Test.java");
+        opts.excludeDirs.add(".git");
+        opts.excludeDirs.add("{target,node_modules}");
+        opts.paths.add(tmp.toString());
+
+        assertEquals(src.resolve("App.java") + ":class App {}" + System.lineSeparator(),
+                runAndCapture(opts));
+    }
+
+    @Test
+    void testStdinLinesSpanningReadsAndBlocks() throws Exception {
+        String longLine = "x".repeat(600_000) + " hit";
+        String input = "hit one\r\nmiss\rhit two\n" + longLine + "\nmiss\nhit é\nhit last";
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        // hands out a few bytes per read, like a slow pipe
+        InputStream trickle = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 4093));
+            }
+        };
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "hit";
+        InputStream originalIn = System.in;
+        System.setIn(trickle);
+        String out;
+        try {
+            out = runAndCapture(opts);
+        } finally {
+            System.setIn(originalIn);
+        }
+        String nl = System.lineSeparator();
+        assertEquals("hit one" + nl + "hit two" + nl + longLine + nl + "hit é" + nl + "hit last" + nl,
+                out);
+    }
+
+    @Test
+    void testStdinMatchesAreWrittenBeforeWaitingForMoreInput() {
+        String nl = System.lineSeparator();
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        String[] seenBeforeSecondRead = {null};
+        // a slow producer: what stdout holds while the second read would block is recorded
+        InputStream slow = new InputStream() {
+            private int reads;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (reads++ == 0) {
+                    byte[] first = "hit one\nmiss\n".getBytes(StandardCharsets.US_ASCII);
+                    System.arraycopy(first, 0, b, off, first.length);
+                    return first.length;
+                }
+                if (seenBeforeSecondRead[0] == null) {
+                    seenBeforeSecondRead[0] = captured.toString(StandardCharsets.UTF_8);
+                }
+                return -1;
+            }
+        };
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "hit";
+        InputStream originalIn = System.in;
+        PrintStream originalOut = System.out;
+        System.setIn(slow);
+        System.setOut(new PrintStream(captured, false, StandardCharsets.UTF_8));
+        try {
+            assertTrue(SearchExecutor.execute(opts));
+        } finally {
+            System.setIn(originalIn);
+            System.setOut(originalOut);
+        }
+        assertEquals("hit one" + nl, seenBeforeSecondRead[0]);
+        assertEquals("hit one" + nl, captured.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testHugeFileSearchedInPartsKeepsFileOrder(@TempDir Path tmp) throws Exception {
+        // larger than the split threshold, with all three line ends around part boundaries
+        byte[] bytes = new byte[70 << 20];
+        int pos = 0;
+        for (int i = 0; pos < bytes.length - 64; i++) {
+            String end = i % 3 == 0 ? "\n" : i % 3 == 1 ? "\r\n" : "\r";
+            String line = (i % 50_000 == 7 ? "needle " : "hay ") + i + " " + "x".repeat(i % 97) + end;
+            byte[] b = line.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(b, 0, bytes, pos, b.length);
+            pos += b.length;
+        }
+        Path f = tmp.resolve("huge.log");
+        Files.write(f, Arrays.copyOf(bytes, pos));
+
+        CommandOptions sequential = new CommandOptions();
+        sequential.pattern = "^needle \\d+";
+        sequential.jobs = 1;
+        sequential.paths.add(f.toString());
+
+        CommandOptions parallel = new CommandOptions();
+        parallel.pattern = sequential.pattern;
+        parallel.jobs = 4;
+        parallel.paths.add(f.toString());
+
+        String expected = runAndCapture(sequential);
+        assertTrue(expected.lines().count() > 10);
+        assertEquals(expected, runAndCapture(parallel));
+    }
+
+    @Test
+    void testFilesWithMatchesCountAndQuietModes(@TempDir Path tmp) throws Exception {
+        Path a = tmp.resolve("a.txt");
+        Path b = tmp.resolve("b.txt");
+        Path c = tmp.resolve("c.txt");
+        Files.writeString(a, "apple\nbanana\napple pie\n");
+        Files.writeString(b, "cherry\n");
+        Files.writeString(c, "apple\n");
+        String nl = System.lineSeparator();
+
+        for (int jobs : new int[] {1, 4}) {
+            CommandOptions list = new CommandOptions();
+            list.pattern = "apple";
+            list.recursive = true;
+            list.jobs = jobs;
+            list.filesWithMatches = true;
+            list.paths.add(tmp.toString());
+            // the walk follows directory order, so compare the lines as sets
+            assertEquals(Set.of(a.toString(), c.toString()),
+                    runAndCapture(list).lines().collect(Collectors.toSet()));
+
+            CommandOptions count = new CommandOptions();
+            count.pattern = "apple";
+            count.recursive = true;
+            count.jobs = jobs;
+            count.count = true;
+            count.paths.add(tmp.toString());
+            assertEquals(Set.of(a + ":2", b + ":0", c + ":1"),
+                    runAndCapture(count).lines().collect(Collectors.toSet()));
+        }
+
+        CommandOptions single = new CommandOptions();
+        single.pattern = "apple";
+        single.count = true;
+        single.paths.add(a.toString());
+        assertEquals("2" + nl, runAndCapture(single));
+
+        CommandOptions quiet = new CommandOptions();
+        quiet.pattern = "apple";
+        quiet.quiet = true;
+        quiet.paths.add(b.toString());
+        quiet.paths.add(a.toString());
+        assertEquals("", runAndCapture(quiet));
+        assertTrue(SearchExecutor.execute(quiet));
+        quiet.paths.remove(a.toString());
+        assertFalse(SearchExecutor.execute(quiet));
+    }
+
+    @Test
+    void testMaxCountStopsEachFile(@TempDir Path tmp) throws Exception {
+        Path a = tmp.resolve("a.txt");
+        Path b = tmp.resolve("b.txt");
+        Files.writeString(a, "hit 1\nmiss\nhit 2\nhit 3\n");
+        Files.writeString(b, "hit 4\nhit 5\n");
+        String nl = System.lineSeparator();
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "hit";
+        opts.maxCount = 2;
+        opts.paths.add(a.toString());
+        opts.paths.add(b.toString());
+        assertEquals(a + ":hit 1" + nl + a + ":hit 2" + nl + b + ":hit 4" + nl + b + ":hit 5" + nl,
+                runAndCapture(opts));
+
+        opts.count = true;
+        assertEquals(a + ":2" + nl + b + ":2" + nl, runAndCapture(opts));
+
+        opts.count = false;
+        opts.maxCount = 0;
+        assertEquals("", runAndCapture(opts));
+        assertFalse(SearchExecutor.execute(opts));
+    }
+
+    @Test
+    void testClosedOutputStopsTheSearch(@TempDir Path tmp) throws Exception {
+        Path f = tmp.resolve("many.txt");
+        Files.writeString(f, "hit\n".repeat(200_000));
+        // like a pipe whose reader exited after the first block
+        int[] writes = {0};
+        OutputStream closed = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (++writes[0] > 1) throw new IOException("Broken pipe");
+            }
+        };
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "hit";
+        opts.paths.add(f.toString());
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(closed, false));
+        try {
+            assertTrue(SearchExecutor.execute(opts));
+        } finally {
+            System.setOut(originalOut);
+        }
+        assertEquals(2, writes[0]);
+    }
+
+    @Test
+    void testTrigramIndexSkipsFilesWithoutTheLiteral(@TempDir Path tmp) throws Exception {
+        Path a = tmp.resolve("a.txt");
+        Path b = Files.createDirectories(tmp.resolve("sub")).resolve("b.txt");
+        Path c = tmp.resolve("c.txt");
+        Files.writeString(a, "hello world\n");
+        Files.writeString(b, "goodbye all\n");
+        Files.writeString(c, "say hello\n");
+
+        CommandOptions index = new CommandOptions();
+        index.index = true;
+        index.paths.add(tmp.toString());
+        assertTrue(SearchExecutor.execute(index));
+        assertTrue(Files.isRegularFile(tmp.resolve(".grep-index")));
+
+        CommandOptions search = new CommandOptions();
+        search.pattern = "hello";
+        search.recursive = true;
+        search.jobs = 1;
+        search.filesWithMatches = true;
+        search.paths.add(tmp.toString());
+        assertEquals(Set.of(a.toString(), c.toString()), linesOf(runAndCapture(search)));
+
+        // same size and time as indexed: trusted, so the new text is not seen
+        FileTime indexed = Files.getLastModifiedTime(b);
+        Files.writeString(b, "hello a lot\n");
+        Files.setLastModifiedTime(b, indexed);
+        assertEquals(Set.of(a.toString(), c.toString()), linesOf(runAndCapture(search)));
+
+        // changed and new files are searched even though the index does not know them
+        Files.writeString(c, "nothing here\n");
+        Path d = tmp.resolve("d.txt");
+        Files.writeString(d, "hello again\n");
+        assertEquals(Set.of(a.toString(), d.toString()), linesOf(runAndCapture(search)));
+
+        // refreshing reads c and d again; the index file itself, which holds "a.txt", is skipped
+        SearchExecutor.execute(index);
+        search.pattern = "hel+o|txt";
+        search.jobs = 4;
+        assertEquals(Set.of(a.toString(), d.toString()), linesOf(runAndCapture(search)));
+
+        // -c still prints a count of 0 for the files the index rules out, in walk order
+        search.pattern = "hello";
+        search.filesWithMatches = false;
+        search.count = true;
+        search.jobs = 1;
+        String sequential = runAndCapture(search);
+        assertEquals(Set.of(a + ":1", b + ":0", c + ":0", d + ":1"), linesOf(sequential));
+        search.jobs = 4;
+        assertEquals(sequential, runAndCapture(search));
+    }
+
+    @Test
+    void testGeneratedDatasetCountsMatchJavaRegex(@TempDir Path tmp) throws Exception {
+        Path root = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED).dataset(tmp, 12 << 20);
+        for (String pattern : new String[] {
+            "ERROR", "user\\d+ \\w+ timeout", "(GET|POST) /api/(items|orders)/\\d+ 500",
+            "needle|throw new \\w+Exception"
+        }) {
+            CommandOptions opts = new CommandOptions();
+            opts.pattern = pattern;
+            opts.recursive = true;
+            opts.count = true;
+            opts.jobs = 1;
+            opts.paths.add(root.toString());
+            Set<String> expected = referenceCounts(root, Pattern.compile(pattern));
+            assertEquals(expected, linesOf(runAndCapture(opts)), pattern);
+            opts.jobs = 4;
+            assertEquals(expected, linesOf(runAndCapture(opts)), pattern);
+        }
+    }
+
+    @Test
+    void testGeneratedDatasetParallelOutputMatchesSequential(@TempDir Path tmp) throws Exception {
+        Path root = new CorpusGenerator(7).dataset(tmp, 12 << 20);
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "ERROR|\\d+\\.\\d+\\.\\d+\\.\\d+ - PUT";
+        opts.recursive = true;
+        opts.jobs = 1;
+        opts.paths.add(root.toString());
+        String expected = runAndCapture(opts);
+        assertTrue(expected.contains("Binary file "));
+        assertTrue(expected.contains("José"));
+        opts.jobs = 4;
+        assertEquals(expected, runAndCapture(opts));
+    }
+
+    @Test
+    void testLineOverStepBudgetIsReportedAndSkipped(@TempDir Path tmp) throws Exception {
+        Path f = tmp.resolve("lines.txt");
+        String slow = "ab".repeat(100) + "cx";
+        Files.writeString(f, "ababx\n" + slow + "\n" + "ab".repeat(100) + "\nxyxyx\n");
+
+        CommandOptions opts = new CommandOptions();
+        opts.pattern = "(\\w+)+\\1x";
+        opts.stepBudget = 100_000;
+        opts.paths.add(f.toString());
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+        String out;
+        try {
+            out = runAndCapture(opts);
+        } finally {
+            System.setErr(originalErr);
+        }
+        String nl = System.lineSeparator();
+        assertEquals("ababx" + nl + "xyxyx" + nl, out);
+        String warning = err.toString(StandardCharsets.UTF_8);
+        assertTrue(warning.contains(f + ": line timed out"), warning);
+        assertTrue(warning.contains(slow.substring(0, 60) + "..."), warning);
+        assertEquals(1, warning.lines().count());
+    }
+
+    @Test
+    void testStatsReportTheRunOnStderr(@TempDir Path tmp) throws Exception {
+        Files.writeString(tmp.resolve("a.txt"), "one one\ntwo\n");
+        Files.writeString(tmp.resolve("b.txt"), "three three\nfour four\nfive\n");
+        Files.writeString(tmp.resolve("c.log"), "six six\n");
+
+        for (int jobs : new int[] {1, 3}) {
+            CommandOptions opts = new CommandOptions();
+            opts.pattern = "(\\w+) \\1";
+            opts.recursive = true;
+            opts.stats = true;
+            opts.jobs = jobs;
+            opts.includes.add("*.txt");
+            opts.paths.add(tmp.toString());
+            PrintStream originalErr = System.err;
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+            String out;
+            try {
+                out = runAndCapture(opts);
+            } finally {
+                System.setErr(originalErr);
+            }
+            String stats = err.toString(StandardCharsets.UTF_8);
+            assertEquals(3, out.lines().count());
+            assertTrue(stats.contains("stats: files: 3 walked, 1 skipped"), stats);
+            assertTrue(stats.contains("stats: input: 39 bytes, 5 lines scanned"), stats);
+            assertTrue(stats.contains("stats: engine: 5 matcher runs,"), stats);
+            assertTrue(stats.contains("stats: output: 3 matching lines, " + out.length()
+                    + " bytes written"), stats);
+            for (String phase : new String[] {"walk", "read", "match", "write"}) {
+                assertTrue(stats.contains("stats:   " + phase + " "), stats);
+            }
+        }
+    }
+
+    /** "path:count" for every file under root, matching lines as ISO-8859-1 like -c does. */
+    private static Set<String> referenceCounts(Path root, Pattern pattern) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).map(file -> {
+                try {
+                    String text = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+                    long count = text.lines().filter(l -> pattern.matcher(l).find()).count();
+                    return file + ":" + count;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toSet());
+        }
+    }
+
+    private static Set<String> linesOf(String output) {
+        return output.lines().collect(Collectors.toSet());
+    }
+}